@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Writer thread of a port. up to the queue depth writes, the one being
+ * sent included, are queued and sent in order, so the caller never waits
+ * for USB.
+ */
+class FTAsyncWriter {
+    private static final String TAG = FTAsyncWriter.class.getSimpleName();
+    private final OutputStream mOut;
+    private final ThreadPoolExecutor mExecutor;
+    // writes which may still be queued or sent
+    private final Semaphore mSlots;
+
+    public FTAsyncWriter(OutputStream out, int queueDepth) {
+        mOut = out;
+        mSlots = new Semaphore(queueDepth);
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, TAG);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    // Queue count bytes of buffer. buffer must not be changed until the write completes.
+    // if the queue is full the returned future fails at once with an IOException.
+    public Future<Integer> write(final byte[] buffer, final int offset, final int count,
+            FTWriteListener listener) {
+        WriteTask task = new WriteTask(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                mOut.write(buffer, offset, count);
+                return count;
+            }
+        }, listener);
+        if (!mSlots.tryAcquire()) {
+            task.reject("write queue is full");
+            return task;
+        }
+        task.mSlot = mSlots;
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.reject("writer is closed");
+        }
+        return task;
+    }
+
+    // Future which has already failed, for a write which cannot be queued.
+    static Future<Integer> failed(final String message, FTWriteListener listener) {
+        WriteTask task = new WriteTask(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                throw new IOException(message);
+            }
+        }, listener);
+        task.run();
+        return task;
+    }
+
+    // Number of writes waiting to be sent.
+    public int getQueuedCount() {
+        return mExecutor.getQueue().size();
+    }
+
+    public boolean isQueueFull() {
+        return mSlots.availablePermits() == 0;
+    }
+
+    // Cancel queued writes and stop the thread.
+    public void close() {
+        for (Runnable r : mExecutor.shutdownNow()) {
+            ((WriteTask) r).cancel(false);
+        }
+    }
+
+    private static class WriteTask extends FutureTask<Integer> {
+        private final FTWriteListener mListener;
+        // released when the write is done
+        Semaphore mSlot;
+
+        WriteTask(Callable<Integer> callable, FTWriteListener listener) {
+            super(callable);
+            mListener = listener;
+        }
+
+        void reject(String message) {
+            setException(new IOException(message));
+        }
+
+        @Override
+        protected void done() {
+            Semaphore slot = mSlot;
+            if (slot != null) {
+                mSlot = null;
+                slot.release();
+            }
+            if (mListener == null) {
+                return;
+            }
+            if (isCancelled()) {
+                mListener.onWriteFailed(new IOException("write cancelled"));
+                return;
+            }
+            try {
+                mListener.onWriteComplete(get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                mListener.onWriteFailed((cause instanceof IOException)?
+                        (IOException) cause : new IOException(String.valueOf(cause)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
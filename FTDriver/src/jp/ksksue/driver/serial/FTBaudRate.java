@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * Baud rate divisor of an FTDI chip, and the baud rate it really makes.
+ *
+ * baud rate = clock / prescaler / divisor
+ *   48MHz clock, prescaler 16 : all chips
+ *   120MHz clock, prescaler 10 : Hi-Speed chips (bit 17 of the divisor)
+ * divisor is n + 0, 1/8, 1/4, 3/8, 1/2, 5/8, 3/4 or 7/8 (n = 2..16383),
+ * FT232AM can use only 0, 1/8, 1/4 and 1/2. 1 and 1.5 (not on FT232AM)
+ * are special cases.
+ *
+ * Divisors at 48MHz
+ * 9600 : 0x4138
+ * 19200    : 0x809c
+ * 38400    : 0xc04e
+ * 57600    : 0xc034
+ * 115200   : 0x001a
+ * 230400   : 0x000d
+ */
+public class FTBaudRate {
+    private static final int CLOCK = 48000000;
+    private static final int PRESCALER = 16;
+    private static final int H_CLOCK = 120000000;
+    private static final int H_PRESCALER = 10;
+    private static final int H_CLOCK_BIT = 0x20000;
+    // divisor in 1/8 is n * 8 + fraction
+    private static final int MAX_DIV8 = (0x3fff << 3) | 7;
+    // bits 14-16 of the divisor for each fraction in 1/8
+    private static final int[] FRACTION_CODE = { 0, 3, 2, 4, 1, 5, 6, 7 };
+    // fraction in 1/8 for each code of bits 14-16
+    private static final int[] CODE_FRACTION = { 0, 4, 2, 1, 3, 5, 6, 7 };
+    private static final boolean[] AM_FRACTION = {
+        true, true, true, false, true, false, false, false };
+
+    private final int mRequested;
+    private final int mBaudrate;
+    private final int mDivisor;
+    // clock8 / div8 without rounding
+    private final double mExactBaudrate;
+
+    private FTBaudRate(int requested, long clock8, int div8, int divisor) {
+        mRequested = requested;
+        mBaudrate = (int) baudrate(clock8, div8);
+        mDivisor = divisor;
+        mExactBaudrate = (double) clock8 / div8;
+    }
+
+    // Find the divisor whose baud rate is closest to baud.
+    public static FTBaudRate calculate(int baud, FTChipType chipType) {
+        if (baud <= 0) {
+            throw new IllegalArgumentException("baud rate " + baud);
+        }
+        boolean am = (chipType == FTChipType.FT232AM);
+        FTBaudRate best = search(baud, CLOCK, PRESCALER, am, 0);
+        if (chipType.isHighSpeed()) {
+            FTBaudRate hs = search(baud, H_CLOCK, H_PRESCALER, false, H_CLOCK_BIT);
+            if (Math.abs(hs.getError()) < Math.abs(best.getError())) {
+                best = hs;
+            }
+        }
+        return best;
+    }
+
+    // try every legal fraction around the ideal divisor.
+    // The error clock8 / div8 - baud is compared exactly, as
+    // |clock8 - baud * div8| / div8, so that an exact divisor always wins
+    // over one whose rounded baud rate happens to be the same.
+    private static FTBaudRate search(int baud, int clock, int prescaler, boolean am, int clockBit) {
+        long clock8 = (long) clock * 8 / prescaler;
+        int n = (int) Math.min(clock8 / baud / 8, 0x3fff);
+        int bestDiv8 = 8;
+        long bestDiff = Math.abs(clock8 - (long) baud * bestDiv8);
+        for (int i = Math.max(n - 1, 1); i <= Math.min(n + 1, 0x3fff); i++) {
+            for (int frac = 0; frac < 8; frac++) {
+                int div8 = (i << 3) | frac;
+                if (!isLegal(div8, am)) {
+                    continue;
+                }
+                long diff = Math.abs(clock8 - (long) baud * div8);
+                // diff / div8 < bestDiff / bestDiv8
+                if (diff * bestDiv8 < bestDiff * div8) {
+                    bestDiff = diff;
+                    bestDiv8 = div8;
+                }
+            }
+        }
+        return new FTBaudRate(baud, clock8, bestDiv8, encode(bestDiv8) | clockBit);
+    }
+
+    private static boolean isLegal(int div8, boolean am) {
+        if (div8 > MAX_DIV8) {
+            return false;
+        }
+        if (div8 < 16) {
+            // only 1 and 1.5 below 2
+            return div8 == 8 || (div8 == 12 && !am);
+        }
+        return !am || AM_FRACTION[div8 & 7];
+    }
+
+    private static long baudrate(long clock8, int div8) {
+        return (clock8 + div8 / 2) / div8;
+    }
+
+    private static int encode(int div8) {
+        if (div8 == 8) {
+            return 0;
+        }
+        if (div8 == 12) {
+            return 1;
+        }
+        return (div8 >> 3) | (FRACTION_CODE[div8 & 7] << 14);
+    }
+
+    // Baud rate made by an encoded divisor, as the chip sees it.
+    static int decode(int divisor) {
+        boolean highClock = (divisor & H_CLOCK_BIT) != 0;
+        long clock8 = highClock? (long) H_CLOCK * 8 / H_PRESCALER : (long) CLOCK * 8 / PRESCALER;
+        divisor &= H_CLOCK_BIT - 1;
+        int div8;
+        if (divisor == 0) {
+            div8 = 8;
+        } else if (divisor == 1) {
+            div8 = 12;
+        } else {
+            div8 = ((divisor & 0x3fff) << 3) | CODE_FRACTION[(divisor >> 14) & 7];
+        }
+        return (int) baudrate(clock8, div8);
+    }
+
+    // baud rate asked for
+    public int getRequestedBaudrate() {
+        return mRequested;
+    }
+
+    // baud rate the divisor really makes
+    public int getBaudrate() {
+        return mBaudrate;
+    }
+
+    // error of the baud rate the divisor makes, before rounding to
+    // getBaudrate(), from getRequestedBaudrate() in percent
+    public double getError() {
+        return (mExactBaudrate - mRequested) * 100.0 / mRequested;
+    }
+
+    // encoded divisor. bits 0-15 are wValue of SIO_SET_BAUDRATE,
+    // bits 16-17 go to wIndex.
+    public int getDivisor() {
+        return mDivisor;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d baud (requested %d, error %.3f%%, divisor 0x%05x)",
+                mBaudrate, mRequested, getError(), mDivisor);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/*
+ * Records the traffic of a port to binary files, see FTSerialPort.setCapture().
+ * RX transfers are recorded as received, with the status bytes, and TX
+ * transfers as sent. The I/O threads only copy a record, header and data,
+ * to the end of a byte ring; a writer thread stores the records to a
+ * memory-mapped file. A record takes only as much of the ring as its
+ * length, so a 64 byte transfer costs 77 bytes. When the ring has no room
+ * for a record it is dropped and counted, the I/O thread never waits for
+ * the file. A new file is started when the current one is full, and the
+ * oldest file is deleted when there are more than maxFiles.
+ * FTCaptureTest checks that 3Mbaud of RX transfers is recorded without drops.
+ *
+ * File format (big endian):
+ *   header : int MAGIC, short VERSION, short packet size,
+ *            long wall clock at start (ms), long System.nanoTime() at start
+ *   records: long System.nanoTime(), byte RX or TX, int length, bytes
+ */
+public class FTCapture {
+    public static final int RX = 0;
+    public static final int TX = 1;
+    public static final int MAGIC = 0x46544350;    // "FTCP"
+    public static final int VERSION = 1;
+    public static final int FILE_HEADER_SIZE = 24;
+    public static final int RECORD_HEADER_SIZE = 13;
+    public static final String EXTENSION = ".ftcap";
+    private static final String TAG = FTCapture.class.getSimpleName();
+    // longer data is split into several records
+    private static final int MAX_RECORD_LENGTH = FTSerialInput.MAX_TRANSFER_SIZE;
+    private static final int MIN_BUFFER_SIZE = RECORD_HEADER_SIZE + MAX_RECORD_LENGTH;
+    private static final int MIN_FILE_SIZE = FILE_HEADER_SIZE + MIN_BUFFER_SIZE;
+
+    private final File mDir;
+    private final String mPrefix;
+    private final int mFileSize;
+    private final int mMaxFiles;
+    // records waiting to be written are in mRing[mTail..mHead), modulo its length.
+    // mHead is moved by the I/O threads holding the lock of this, mTail by
+    // the writer thread.
+    private final byte[] mRing;
+    private volatile long mHead;
+    private volatile long mTail;
+    private final ByteBuffer mHeaderIn = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    private final Thread mThread;
+    private volatile boolean mStop;
+    private volatile int mPacketSize = 64;
+    private final AtomicLong mRecords = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    // writer thread only
+    private final byte[] mHeaderOut = new byte[RECORD_HEADER_SIZE];
+    private final LinkedList<File> mFiles = new LinkedList<File>();
+    private int mFileIndex;
+    private RandomAccessFile mFile;
+    private MappedByteBuffer mMap;
+
+    // Capture to files dir/prefix-NNNN.ftcap of fileSize bytes, keeping up to
+    // maxFiles of them. bufferSize bytes of records (13 bytes each plus the
+    // data) can wait to be written; at least one record of 16KB.
+    public FTCapture(File dir, String prefix, int fileSize, int maxFiles, int bufferSize) {
+        mDir = dir;
+        mPrefix = prefix;
+        mFileSize = Math.max(fileSize, MIN_FILE_SIZE);
+        mMaxFiles = Math.max(maxFiles, 1);
+        mRing = new byte[Math.max(bufferSize, MIN_BUFFER_SIZE)];
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, TAG);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    // Packet size written to the headers of the following files.
+    void setPacketSize(int packetSize) {
+        mPacketSize = packetSize;
+    }
+
+    // Called by the I/O threads. longer data is split into several records.
+    synchronized void record(int direction, byte[] buf, int offset, int length) {
+        long time = System.nanoTime();
+        while (length > 0) {
+            int len = Math.min(length, MAX_RECORD_LENGTH);
+            if (mRing.length - (mHead - mTail) < RECORD_HEADER_SIZE + len) {
+                mDropped.incrementAndGet();
+                return;
+            }
+            mHeaderIn.clear();
+            mHeaderIn.putLong(time).put((byte) direction).putInt(len);
+            long head = copyIn(mHead, mHeaderIn.array(), 0, RECORD_HEADER_SIZE);
+            mHead = copyIn(head, buf, offset, len);
+            offset += len;
+            length -= len;
+        }
+        notify();
+    }
+
+    // Copy len bytes of buf to the ring at pos and return the position after them.
+    private long copyIn(long pos, byte[] buf, int offset, int len) {
+        int index = (int) (pos % mRing.length);
+        int first = Math.min(len, mRing.length - index);
+        System.arraycopy(buf, offset, mRing, index, first);
+        System.arraycopy(buf, offset + first, mRing, 0, len - first);
+        return pos + len;
+    }
+
+    // Write the queued records and close the file.
+    public void close() {
+        mStop = true;
+        synchronized (this) {
+            notify();
+        }
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Number of records written
+    public long getRecordCount() {
+        return mRecords.get();
+    }
+
+    // Number of records dropped since the ring was full
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    private void writeLoop() {
+        try {
+            for (;;) {
+                long head;
+                synchronized (this) {
+                    while (mHead == mTail && !mStop) {
+                        wait();
+                    }
+                    head = mHead;
+                }
+                if (head == mTail) {
+                    break;
+                }
+                while (mTail < head) {
+                    mTail = write(mTail);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.e(TAG, "capture stopped", e);
+        } finally {
+            try {
+                closeFile();
+            } catch (IOException e) {
+                Log.e(TAG, "failed to close capture", e);
+            }
+        }
+    }
+
+    // Write the record at pos of the ring and return the position after it.
+    private long write(long pos) throws IOException {
+        pos = copyOut(pos, mHeaderOut, RECORD_HEADER_SIZE);
+        int length = ByteBuffer.wrap(mHeaderOut).getInt(RECORD_HEADER_SIZE - 4);
+        if (mMap == null || mMap.remaining() < RECORD_HEADER_SIZE + length) {
+            nextFile();
+        }
+        mMap.put(mHeaderOut);
+        int index = (int) (pos % mRing.length);
+        int first = Math.min(length, mRing.length - index);
+        mMap.put(mRing, index, first);
+        mMap.put(mRing, 0, length - first);
+        mRecords.incrementAndGet();
+        return pos + length;
+    }
+
+    private long copyOut(long pos, byte[] buf, int len) {
+        int index = (int) (pos % mRing.length);
+        int first = Math.min(len, mRing.length - index);
+        System.arraycopy(mRing, index, buf, 0, first);
+        System.arraycopy(mRing, 0, buf, first, len - first);
+        return pos + len;
+    }
+
+    private void nextFile() throws IOException {
+        closeFile();
+        File file = new File(mDir, String.format("%s-%04d%s", mPrefix, mFileIndex++, EXTENSION));
+        mFiles.add(file);
+        while (mFiles.size() > mMaxFiles) {
+            mFiles.removeFirst().delete();
+        }
+        mFile = new RandomAccessFile(file, "rw");
+        mMap = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mFileSize);
+        mMap.putInt(MAGIC);
+        mMap.putShort((short) VERSION);
+        mMap.putShort((short) mPacketSize);
+        mMap.putLong(System.currentTimeMillis());
+        mMap.putLong(System.nanoTime());
+        Log.d(TAG, "capture to " + file);
+    }
+
+    // Cut the unused end of the file.
+    private void closeFile() throws IOException {
+        if (mFile == null) {
+            return;
+        }
+        int length = mMap.position();
+        mMap.force();
+        mMap = null;
+        mFile.getChannel().truncate(length);
+        mFile.close();
+        mFile = null;
+    }
+}
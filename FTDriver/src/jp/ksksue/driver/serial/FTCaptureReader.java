@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * Reads the records of a file written by FTCapture, or of all the files of
+ * a capture in turn.
+ *
+ *   FTCaptureReader reader = new FTCaptureReader(dir, prefix);
+ *   while (reader.next()) {
+ *       reader.getDirection(); reader.getData(); reader.getLength();
+ *   }
+ *   reader.close();
+ */
+public class FTCaptureReader {
+    private final List<File> mFiles;
+    private int mFileIndex;
+    private DataInputStream mIn;
+    private final int mPacketSize;
+    private final long mStartMillis;
+    private final long mStartNanos;
+    private long mTime;
+    private int mDirection;
+    private byte[] mData = new byte[FTSerialInput.MAX_TRANSFER_SIZE];
+    private int mLength;
+    // header of the file being read
+    private int mHeaderPacketSize;
+    private long mHeaderMillis;
+    private long mHeaderNanos;
+
+    public FTCaptureReader(File file) throws IOException {
+        this(Collections.singletonList(file));
+    }
+
+    // Read the files dir/prefix-NNNN.ftcap written by one FTCapture, in the
+    // order they were written.
+    public FTCaptureReader(File dir, String prefix) throws IOException {
+        this(listFiles(dir, prefix));
+    }
+
+    // Read files one after another. the packet size and start time are
+    // those of the first one.
+    public FTCaptureReader(List<File> files) throws IOException {
+        if (files.isEmpty()) {
+            throw new IOException("no capture files");
+        }
+        mFiles = new ArrayList<File>(files);
+        open(0);
+        mPacketSize = mHeaderPacketSize;
+        mStartMillis = mHeaderMillis;
+        mStartNanos = mHeaderNanos;
+    }
+
+    // Files dir/prefix-NNNN.ftcap in the order of NNNN
+    public static List<File> listFiles(File dir, final String prefix) {
+        List<File> files = new ArrayList<File>();
+        File[] all = dir.listFiles();
+        if (all != null) {
+            for (File file : all) {
+                if (fileIndex(file, prefix) >= 0) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                int ia = fileIndex(a, prefix);
+                int ib = fileIndex(b, prefix);
+                return (ia < ib)? -1 : ((ia == ib)? 0 : 1);
+            }
+        });
+        return files;
+    }
+
+    // NNNN of prefix-NNNN.ftcap, -1 if file is not one of them
+    private static int fileIndex(File file, String prefix) {
+        String name = file.getName();
+        if (!name.startsWith(prefix + "-") || !name.endsWith(FTCapture.EXTENSION)) {
+            return -1;
+        }
+        String index = name.substring(prefix.length() + 1, name.length() - FTCapture.EXTENSION.length());
+        try {
+            return Integer.parseInt(index);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void open(int index) throws IOException {
+        File file = mFiles.get(index);
+        mFileIndex = index;
+        mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (mIn.readInt() != FTCapture.MAGIC) {
+                throw new IOException(file + " is not a capture");
+            }
+            int version = mIn.readShort();
+            if (version != FTCapture.VERSION) {
+                throw new IOException("unknown capture version " + version);
+            }
+            mHeaderPacketSize = mIn.readShort();
+            mHeaderMillis = mIn.readLong();
+            mHeaderNanos = mIn.readLong();
+        } catch (IOException e) {
+            mIn.close();
+            throw e;
+        }
+    }
+
+    // Read the next record. returns false at the end of the capture.
+    public boolean next() throws IOException {
+        while (!readHeader()) {
+            if (mFileIndex + 1 >= mFiles.size()) {
+                return false;
+            }
+            mIn.close();
+            open(mFileIndex + 1);
+        }
+        if (mData.length < mLength) {
+            mData = new byte[mLength];
+        }
+        mIn.readFully(mData, 0, mLength);
+        return true;
+    }
+
+    // Read the header of the next record of the current file, false at its end.
+    private boolean readHeader() throws IOException {
+        try {
+            mTime = mIn.readLong();
+            mDirection = mIn.readByte();
+            mLength = mIn.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        // 0 in the unused end of a file which was not closed
+        return mLength > 0;
+    }
+
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    public int getPacketSize() {
+        return mPacketSize;
+    }
+
+    // Wall clock time (ms) and System.nanoTime() when the file was started
+    public long getStartMillis() {
+        return mStartMillis;
+    }
+
+    public long getStartNanos() {
+        return mStartNanos;
+    }
+
+    // System.nanoTime() of the record
+    public long getTime() {
+        return mTime;
+    }
+
+    // FTCapture.RX or TX
+    public int getDirection() {
+        return mDirection;
+    }
+
+    // Data of the record, valid until the next call of next()
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+}
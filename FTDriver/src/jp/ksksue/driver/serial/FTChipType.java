@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * FTDI chip families. Hi-Speed chips (FT2232H, FT4232H, FT232H) have
+ * 512 byte packets and a 120MHz baud rate clock.
+ */
+public enum FTChipType {
+    FT232AM(false),
+    FT232BM(false),
+    FT2232C(false),
+    FT232R(false),
+    FT2232H(true),
+    FT4232H(true),
+    FT232H(true),
+    UNKNOWN(false);
+
+    private final boolean mHighSpeed;
+
+    private FTChipType(boolean highSpeed) {
+        mHighSpeed = highSpeed;
+    }
+
+    public boolean isHighSpeed() {
+        return mHighSpeed;
+    }
+
+    // Max packet size of the bulk endpoints
+    public int getMaxPacketSize() {
+        return mHighSpeed? 512 : 64;
+    }
+
+    // Default largest bytes per bulkTransfer of writes
+    public int getMaxTransferSize() {
+        return mHighSpeed? 16384 : 4096;
+    }
+
+    // Highest baud rate: 12Mbaud with 120MHz clock, 3Mbaud with 48MHz clock
+    public int getMaxBaudrate() {
+        return mHighSpeed? 12000000 : 3000000;
+    }
+
+    // Chips have more than one interface use the upper byte of wIndex
+    // for the high bits of the baud rate divisor.
+    boolean hasDivisorInIndexHigh() {
+        return mHighSpeed || this == FT2232C;
+    }
+
+    // Detect chip type from bcdDevice of the device descriptor.
+    // product id is used if bcdDevice is not known (-1).
+    public static FTChipType detect(int productId, int bcdDevice) {
+        return detect(productId, bcdDevice, -1, false);
+    }
+
+    // iSerialNumber is the serial number string index of the device
+    // descriptor, -1 if not known. FT232BM reports bcdDevice 0x0200 like
+    // FT232AM when it has no serial number (iSerialNumber 0); then it is
+    // told apart by its latency timer, which FT232AM does not have.
+    // latencyTimer is true if the chip answered GET_LATENCY_TIMER.
+    public static FTChipType detect(int productId, int bcdDevice, int iSerialNumber,
+            boolean latencyTimer) {
+        switch (bcdDevice) {
+        case 0x0200: return (iSerialNumber == 0 && latencyTimer)? FT232BM : FT232AM;
+        case 0x0400: return FT232BM;
+        case 0x0500: return FT2232C;
+        case 0x0600: return FT232R;
+        case 0x0700: return FT2232H;
+        case 0x0800: return FT4232H;
+        case 0x0900: return FT232H;
+        }
+        switch (productId) {
+        case 0x6001: return FT232R;
+        case 0x6010: return FT2232C;
+        case 0x6011: return FT4232H;
+        case 0x6014: return FT232H;
+        }
+        return UNKNOWN;
+    }
+}
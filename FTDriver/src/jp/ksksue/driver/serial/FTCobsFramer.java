@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * COBS (Consistent Overhead Byte Stuffing) frames delimited by 0.
+ * The encoded frame is gathered up to the delimiter and decoded in place.
+ * A frame whose codes run past its end or too long is dropped.
+ */
+public class FTCobsFramer extends FTFramer {
+    private boolean mSkipping;
+
+    // maxFrameSize is the size of the decoded frame.
+    public FTCobsFramer(int maxFrameSize, FTFrameListener listener) {
+        super(maxEncodedLength(maxFrameSize) - 1, listener);
+    }
+
+    @Override
+    public void decode(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte c = buffer[i];
+            if (c == 0) {
+                if (!mSkipping && mFrameLen > 0) {
+                    int len = decodeInPlace(mFrame, mFrameLen);
+                    if (len < 0) {
+                        error();
+                    } else {
+                        emit(mFrame, 0, len);
+                    }
+                }
+                mFrameLen = 0;
+                mSkipping = false;
+            } else if (!mSkipping && !append(c)) {
+                error();
+                mSkipping = true;
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mSkipping = false;
+    }
+
+    // decode buf[0..len) in place and return decoded length, or -1 if corrupt.
+    private static int decodeInPlace(byte[] buf, int len) {
+        int src = 0;
+        int dst = 0;
+        while (src < len) {
+            int code = buf[src++] & 0xff;
+            if (src + code - 1 > len) {
+                return -1;
+            }
+            for (int i = 1; i < code; i++) {
+                buf[dst++] = buf[src++];
+            }
+            if (code < 0xff && src < len) {
+                buf[dst++] = 0;
+            }
+        }
+        return dst;
+    }
+
+    // Largest encoded length of length bytes, including the delimiter
+    public static int maxEncodedLength(int length) {
+        return length + length / 254 + 2;
+    }
+
+    // Encode src into dst followed by the 0 delimiter. returns the length written.
+    public static int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+        int codePos = dstOffset;
+        int d = dstOffset + 1;
+        int code = 1;
+        for (int i = offset; i < offset + length; i++) {
+            byte c = src[i];
+            if (c == 0) {
+                dst[codePos] = (byte) code;
+                codePos = d++;
+                code = 1;
+            } else {
+                dst[d++] = c;
+                if (++code == 0xff) {
+                    dst[codePos] = (byte) code;
+                    codePos = d++;
+                    code = 1;
+                }
+            }
+        }
+        dst[codePos] = (byte) code;
+        dst[d++] = 0;
+        return d - dstOffset;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * Decodes CSV lines into a reusable FTCsvRecord by a schema of field types,
+ * without creating Strings or boxed numbers.
+ * A line which does not match the schema is counted, not thrown.
+ *
+ *   FTCsvDecoder decoder = new FTCsvDecoder(',', FTCsvDecoder.DECIMAL, FTCsvDecoder.INTEGER);
+ *   FTCsvRecord record = decoder.newRecord();
+ *   if (decoder.decode(line, 0, len, record)) {
+ *       double d = record.getDouble(0);
+ *   }
+ */
+public class FTCsvDecoder {
+    // field types
+    public static final int INTEGER = 0;
+    public static final int DECIMAL = 1;
+    public static final int TEXT = 2;
+
+    // more digits may overflow long
+    private static final int MAX_DIGITS = 18;
+    private static final double[] POW10 = new double[MAX_DIGITS + 1];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i <= MAX_DIGITS; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private final byte mSeparator;
+    private final int[] mTypes;
+    private long mLines;
+    private long mErrors;
+
+    public FTCsvDecoder(int separator, int... types) {
+        mSeparator = (byte) separator;
+        mTypes = types.clone();
+    }
+
+    public FTCsvRecord newRecord() {
+        return new FTCsvRecord(mTypes.length);
+    }
+
+    // Decode frame[offset .. offset+length) into record.
+    // returns false, and counts an error, if the line does not match the schema.
+    public boolean decode(byte[] frame, int offset, int length, FTCsvRecord record) {
+        mLines++;
+        int end = offset + length;
+        // line may end with CR
+        if (end > offset && frame[end - 1] == '\r') {
+            end--;
+        }
+        record.mFrame = frame;
+        int pos = offset;
+        for (int field = 0; field < mTypes.length; field++) {
+            int fieldEnd = pos;
+            while (fieldEnd < end && frame[fieldEnd] != mSeparator) {
+                fieldEnd++;
+            }
+            if ((fieldEnd == end) != (field == mTypes.length - 1)
+                    || !parseField(frame, pos, fieldEnd, field, record)) {
+                mErrors++;
+                return false;
+            }
+            pos = fieldEnd + 1;
+        }
+        return true;
+    }
+
+    private boolean parseField(byte[] frame, int start, int end, int field, FTCsvRecord record) {
+        // trim spaces
+        while (start < end && frame[start] == ' ') {
+            start++;
+        }
+        while (end > start && frame[end - 1] == ' ') {
+            end--;
+        }
+        record.mStart[field] = start;
+        record.mLength[field] = end - start;
+        int type = mTypes[field];
+        if (type == TEXT) {
+            return true;
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (frame[i] == '-' || frame[i] == '+')) {
+            negative = (frame[i] == '-');
+            i++;
+        }
+        long value = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (; i < end; i++) {
+            int c = frame[i];
+            if (c >= '0' && c <= '9') {
+                if (++digits > MAX_DIGITS) {
+                    return false;
+                }
+                value = value * 10 + (c - '0');
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else if (c == '.' && type == DECIMAL && fraction < 0) {
+                fraction = 0;
+            } else {
+                return false;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (negative) {
+            value = -value;
+        }
+        record.mLongs[field] = value;
+        record.mDoubles[field] = (fraction > 0)? value / POW10[fraction] : value;
+        return true;
+    }
+
+    // Number of lines given to decode
+    public long getLineCount() {
+        return mLines;
+    }
+
+    // Number of lines which did not match the schema
+    public long getErrorCount() {
+        return mErrors;
+    }
+}
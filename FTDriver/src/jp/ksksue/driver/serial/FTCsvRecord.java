@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * A CSV line decoded by FTCsvDecoder. It is reused for every line:
+ * numeric fields are kept as primitives, text fields as positions in
+ * the frame, which is valid until the next line is decoded.
+ */
+public class FTCsvRecord {
+    final long[] mLongs;
+    final double[] mDoubles;
+    final int[] mStart;
+    final int[] mLength;
+    byte[] mFrame;
+
+    FTCsvRecord(int fieldCount) {
+        mLongs = new long[fieldCount];
+        mDoubles = new double[fieldCount];
+        mStart = new int[fieldCount];
+        mLength = new int[fieldCount];
+    }
+
+    public int getFieldCount() {
+        return mLongs.length;
+    }
+
+    // value of an INTEGER field
+    public long getLong(int field) {
+        return mLongs[field];
+    }
+
+    public int getInt(int field) {
+        return (int) mLongs[field];
+    }
+
+    // value of a DECIMAL or INTEGER field
+    public double getDouble(int field) {
+        return mDoubles[field];
+    }
+
+    // Copy the characters of the field to dst and return their number.
+    // A field longer than the room in dst is cut; getTextLength() gives
+    // the whole length.
+    public int getText(int field, char[] dst, int offset) {
+        int start = mStart[field];
+        int len = Math.min(mLength[field], dst.length - offset);
+        for (int i = 0; i < len; i++) {
+            dst[offset + i] = (char) (mFrame[start + i] & 0xff);
+        }
+        return len;
+    }
+
+    public int getTextLength(int field) {
+        return mLength[field];
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Passes data fed to the receive buffer to a FTDataListener, at once or
+ * batched by byte count and time window, on the reader thread or an Executor.
+ * At most one delivery task is pending at a time, so a slow listener
+ * gets larger batches instead of a growing task queue.
+ * After close() returns the listener is not called any more.
+ */
+class FTDataDispatcher {
+    private static final int MIN_BUFFER_SIZE = 4096;
+    private final FTDataListener mListener;
+    // null to deliver on the reader thread
+    private final Executor mExecutor;
+    private final int mMinBytes;
+    private final int mWindowMillis;
+    private final byte[] mBuf;
+    private final FTPortMetrics mMetrics;
+    private volatile FTRingBuffer mRing;
+    private final AtomicBoolean mDeliveryPending = new AtomicBoolean();
+    private final AtomicBoolean mWindowPending = new AtomicBoolean();
+    private volatile ScheduledFuture<?> mWindowFuture;
+    private volatile boolean mClosed;
+
+    private final Runnable mDeliverTask = new Runnable() {
+        @Override
+        public void run() {
+            mDeliveryPending.set(false);
+            deliver();
+        }
+    };
+
+    private final Runnable mWindowTask = new Runnable() {
+        @Override
+        public void run() {
+            mWindowPending.set(false);
+            dispatch();
+        }
+    };
+
+    FTDataDispatcher(FTDataListener listener, Executor executor, int minBytes, int windowMillis,
+            FTPortMetrics metrics) {
+        mListener = listener;
+        mExecutor = executor;
+        mMinBytes = minBytes;
+        mWindowMillis = windowMillis;
+        mBuf = new byte[Math.max(minBytes, MIN_BUFFER_SIZE)];
+        mMetrics = metrics;
+    }
+
+    // Called by the reader after writing to ring.
+    void dataArrived(FTRingBuffer ring) {
+        if (mClosed) {
+            return;
+        }
+        mRing = ring;
+        if (ring.available() >= mMinBytes && (mMinBytes > 0 || mWindowMillis == 0)) {
+            dispatch();
+        } else if (mWindowMillis > 0 && mWindowPending.compareAndSet(false, true)) {
+            // deliver what has arrived when the window ends
+            mWindowFuture = FTTimer.schedule(mWindowTask, mWindowMillis);
+        }
+    }
+
+    // Cancel the pending window and stop calling the listener. waits for
+    // a call in progress on another thread.
+    void close() {
+        mClosed = true;
+        ScheduledFuture<?> window = mWindowFuture;
+        if (window != null) {
+            window.cancel(false);
+        }
+        synchronized (this) {
+            mRing = null;
+        }
+    }
+
+    private void dispatch() {
+        if (mExecutor == null) {
+            deliver();
+        } else if (mDeliveryPending.compareAndSet(false, true)) {
+            mExecutor.execute(mDeliverTask);
+        }
+    }
+
+    // Read all buffered data and pass it to the listener.
+    // synchronized since the reader and the timer may both deliver.
+    private synchronized void deliver() {
+        FTRingBuffer ring = mRing;
+        if (ring == null) {
+            return;
+        }
+        int len;
+        while (!mClosed && (len = ring.read(mBuf, 0, mBuf.length)) > 0) {
+            mMetrics.consumed(ring.readPosition());
+            mListener.onDataReceived(mBuf, len);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * Received data, see FTSerialPort.setDataListener().
+ */
+public interface FTDataListener {
+    // data is reused after return, copy what should be kept.
+    void onDataReceived(byte[] data, int length);
+}
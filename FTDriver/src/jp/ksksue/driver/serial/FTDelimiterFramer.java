@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * Frames terminated by a delimiter byte, e.g. '\n' for text lines.
+ * The delimiter is not included in the frame.
+ */
+public class FTDelimiterFramer extends FTFramer {
+    private final byte mDelimiter;
+    // skipping a too long frame up to the next delimiter
+    private boolean mSkipping;
+
+    public FTDelimiterFramer(int delimiter, int maxFrameSize, FTFrameListener listener) {
+        super(maxFrameSize, listener);
+        mDelimiter = (byte) delimiter;
+    }
+
+    @Override
+    public void decode(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            if (buffer[i] != mDelimiter) {
+                continue;
+            }
+            int len = i - start;
+            if (mSkipping) {
+                mSkipping = false;
+            } else if (mFrameLen == 0) {
+                // whole frame is in buffer, no copy
+                if (len <= mFrame.length) {
+                    emit(buffer, start, len);
+                } else {
+                    error();
+                }
+            } else if (mFrameLen + len <= mFrame.length) {
+                System.arraycopy(buffer, start, mFrame, mFrameLen, len);
+                emit(mFrame, 0, mFrameLen + len);
+                mFrameLen = 0;
+            } else {
+                error();
+            }
+            start = i + 1;
+        }
+        // keep the partial frame
+        int len = end - start;
+        if (len > 0 && !mSkipping) {
+            if (mFrameLen + len <= mFrame.length) {
+                System.arraycopy(buffer, start, mFrame, mFrameLen, len);
+                mFrameLen += len;
+            } else {
+                error();
+                mSkipping = true;
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mSkipping = false;
+    }
+
+    // Copy src to dst followed by the delimiter. returns the length written.
+    public static int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset,
+            int delimiter) {
+        System.arraycopy(src, offset, dst, dstOffset, length);
+        dst[dstOffset + length] = (byte) delimiter;
+        return length + 1;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.util.Collections;
+import java.util.List;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+
+/*
+ * An opened FTDI device: its connection and serial ports.
+ * Each device has its own connection, and each port its own reader and
+ * writer threads, so a slow device does not stall I/O of other devices.
+ */
+public class FTDevice {
+    private UsbDevice mDevice;
+    private UsbDeviceConnection mConnection;
+    private List<FTSerialPort> mPorts;
+    private FTChipType mChipType;
+    private String mSerial;
+    private FTEventLoop mEventLoop;
+
+    FTDevice(UsbDevice device, UsbDeviceConnection connection, List<FTSerialPort> ports,
+            FTChipType chipType) {
+        mDevice = device;
+        mConnection = connection;
+        mPorts = Collections.unmodifiableList(ports);
+        mChipType = chipType;
+        mSerial = connection.getSerial();
+        for (FTSerialPort port : ports) {
+            port.setDevice(this);
+        }
+    }
+
+    public String getDeviceName() {
+        return mDevice.getDeviceName();
+    }
+
+    // USB serial number, or null if the device has none
+    public String getSerial() {
+        return mSerial;
+    }
+
+    public FTChipType getChipType() {
+        return mChipType;
+    }
+
+    public UsbDevice getUsbDevice() {
+        return mDevice;
+    }
+
+    UsbDeviceConnection getConnection() {
+        return mConnection;
+    }
+
+    public List<FTSerialPort> getPorts() {
+        return mPorts;
+    }
+
+    public FTSerialPort getPort(int index) {
+        return mPorts.get(index);
+    }
+
+    // Start reader threads of all opened ports
+    public void startReaders(int bufferSize, int overflowPolicy) {
+        for (FTSerialPort port : mPorts) {
+            port.startReader(bufferSize, overflowPolicy);
+        }
+    }
+
+    // The event loop of the connection. a new one after the last was closed.
+    public synchronized FTEventLoop getEventLoop() {
+        if (mEventLoop == null || mEventLoop.isClosed()) {
+            mEventLoop = new FTEventLoop(this);
+        }
+        return mEventLoop;
+    }
+
+    // Receive on all opened ports with one FTEventLoop thread.
+    // see FTEventLoop.addPort for the arguments.
+    public void startEventLoop(int requestCount, int transferSize, int bufferSize) {
+        FTEventLoop loop = getEventLoop();
+        for (FTSerialPort port : mPorts) {
+            loop.addPort(port, requestCount, transferSize, bufferSize);
+        }
+        loop.start();
+    }
+
+    public synchronized void stopEventLoop() {
+        if (mEventLoop != null) {
+            mEventLoop.stop();
+            mEventLoop = null;
+        }
+    }
+
+    // Close all ports and the connection
+    void close() {
+        stopEventLoop();
+        for (FTSerialPort port : mPorts) {
+            port.close();
+        }
+        mConnection.close();
+    }
+}
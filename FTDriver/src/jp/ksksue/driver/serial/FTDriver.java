@@ -8,20 +8,24 @@ package jp.ksksue.driver.serial;
  */
 
 /*
- * FT232RL
- * Baudrate : any
- * RX Data Size up to 60byte
- * TX Data Size up to 64byte
+ * FT232RL, FT2232C, FT232H, FT2232H, FT4232H
+ * Baudrate : any (up to 3Mbps, 12Mbps for Hi-Speed chips)
+ * RX Data Size up to 60byte (510byte for Hi-Speed chips) per packet
+ * TX Data Size up to 64byte (512byte for Hi-Speed chips) per packet
  */
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import android.content.Intent;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbInterface;
 import android.hardware.usb.UsbManager;
+import android.os.Build;
 import android.util.Log;
 
 class UsbId {
@@ -34,6 +38,8 @@ public class FTDriver {
     private static final UsbId[] IDS = { 
         new UsbId(0x0403, 0x6001),
         new UsbId(0x0403, 0x6010),
+        new UsbId(0x0403, 0x6011),
+        new UsbId(0x0403, 0x6014),
     };
     public static final int BAUD9600 = 9600;
     public static final int BAUD14400 = 14400;
@@ -46,31 +52,57 @@ public class FTDriver {
     private static final String TAG = FTDriver.class.getSimpleName();
 
     private UsbManager mManager;
-    private UsbDevice mDevice;
-    private UsbDeviceConnection mDeviceConnection;
-    private List<FTSerialPort> mPorts;
+    private List<FTDevice> mDevices;
 
     public FTDriver(UsbManager manager) {
         mManager = manager;
-        mPorts = new ArrayList<FTSerialPort>();
+        mDevices = new CopyOnWriteArrayList<FTDevice>();
+    }
+    
+    // Opened devices
+    public List<FTDevice> getDevices() {
+        return Collections.unmodifiableList(mDevices);
+    }
+    
+    // Find an opened device by USB serial number or device name
+    public FTDevice getDevice(String serialOrName) {
+        for (FTDevice device : mDevices) {
+            if (serialOrName.equals(device.getSerial())
+                    || serialOrName.equals(device.getDeviceName())) {
+                return device;
+            }
+        }
+        return null;
+    }
+    
+    // Ports of all opened devices
+    public List<FTSerialPort> getPorts() {
+        List<FTSerialPort> ports = new ArrayList<FTSerialPort>();
+        for (FTDevice device : mDevices) {
+            ports.addAll(device.getPorts());
+        }
+        return ports;
     }
     
     public String[] getPortNames() {
-        String[] names = new String[mPorts.size()];
-        for (int i=0; i < mPorts.size(); i++) {
-            names[i] = mPorts.get(i).getPortName();
+        List<FTSerialPort> ports = getPorts();
+        String[] names = new String[ports.size()];
+        for (int i=0; i < ports.size(); i++) {
+            names[i] = ports.get(i).getPortName();
         }
         return names;
     }
     
     public FTSerialPort getPort(int index) {
-        return mPorts.get(index);
+        return getPorts().get(index);
     }
     
     public FTSerialPort getPort(String portName) {
-        for (FTSerialPort port : mPorts) {
-            if (portName.equals(port.getPortName())) {
-                return port;
+        for (FTDevice device : mDevices) {
+            for (FTSerialPort port : device.getPorts()) {
+                if (portName.equals(port.getPortName())) {
+                    return port;
+                }
             }
         }
         return null;
@@ -80,39 +112,48 @@ public class FTDriver {
         return getPort(0);
     }
 
-    // collect information of FTDI USB Device and create serial ports.
+    // collect information of FTDI USB Devices and create serial ports.
+    // returns true if any device is opened.
     public boolean begin() {
         for (UsbDevice device : mManager.getDeviceList().values()) {
             Log.i(TAG, "Devices : " + device.toString());
-            if (beginDevice(device)) {
-                // in current version , we use only first device.
-                return true;
-            }
+            beginDevice(device);
         }
-        return false;
+        return !mDevices.isEmpty();
     }
 
-    // Close the device
+    // Close all devices
     public void end() {
-        if (mDevice != null) {
-            endDevice(mDevice);
+        for (FTDevice device : mDevices) {
+            endDevice(device.getUsbDevice());
         }
     }
 
-    // TODO Implement these methods
-/*    public void available() {
-    	
+    // Number of bytes which can be read from the first port without waiting
+    public int available() {
+        if (mDevices.isEmpty()) {
+            return 0;
+        }
+        return getPort().available();
     }
     
-    public void peek() {
-    	
+    // Next byte of the first port without removing it, or -1
+    public int peek() {
+        if (mDevices.isEmpty()) {
+            return -1;
+        }
+        return getPort().peek();
     }
-    
-    public void flush() {
-    	
+
+    // Send bytes gathered on the first port
+    public void flush() throws IOException {
+        if (!mDevices.isEmpty()) {
+            getPort().flush();
+        }
     }
-    
-    public void print() {
+
+    // TODO Implement these methods
+/*    public void print() {
     	
     }
     
@@ -122,6 +163,10 @@ public class FTDriver {
     */
 
     private boolean beginDevice(UsbDevice device) {
+        if (findDevice(device.getDeviceName()) != null) {
+            // already opened
+            return true;
+        }
     	List<FTSerialPort> newPorts = new ArrayList<FTSerialPort>();
         UsbDeviceConnection connection = mManager.openDevice(device);
         if (connection == null) {
@@ -129,12 +174,13 @@ public class FTDriver {
         	return false;
         }
         Log.d(TAG, "check ids of device: " + device);
+        FTChipType chipType = getChipType(device, connection);
         int count = device.getInterfaceCount();
         for (int i = 0; i < count; i++) {
             UsbInterface intf = device.getInterface(i);
             for (UsbId id : IDS) {
                 if (device.getVendorId() == id.mVid && device.getProductId() == id.mPid) {
-                    FTSerialPort port = createPort(connection, device.getDeviceName(), intf, i + ((count > 1)? 1 : 0));
+                    FTSerialPort port = createPort(connection, device.getDeviceName(), intf, i + ((count > 1)? 1 : 0), chipType);
                     if (port != null) {
                         newPorts.add(port);
                     }
@@ -143,37 +189,64 @@ public class FTDriver {
         }
     	if (newPorts.size() > 0) {
     		// use this device.
-    		// [TODO] in current version, it supports only one device
-    		mPorts = newPorts;
-    		mDevice = device;
-    		mDeviceConnection = connection;
-        	Log.i(TAG,"Device Serial : "+mDeviceConnection.getSerial());
+    		FTDevice ftDevice = new FTDevice(device, connection, newPorts, chipType);
+    		mDevices.add(ftDevice);
+        	Log.i(TAG,"Device Serial : "+ftDevice.getSerial());
         	return true;
     	}
     	connection.close();
     	return false;
     }
     private void endDevice(UsbDevice device) {
-		String deviceName = device.getDeviceName();
-		if (mDevice != null && mDevice.equals(deviceName)) {
+		FTDevice ftDevice = findDevice(device.getDeviceName());
+		if (ftDevice != null) {
 			Log.d(TAG, "USB interface removed");
-	        if (mDeviceConnection != null) {
-	            for (FTSerialPort port : mPorts) {
-	                port.close();
-	            }
-	        	mPorts.clear();
-	            mDeviceConnection.close();
-	            mDevice = null;
-	            mDeviceConnection = null;
-	        }
+			mDevices.remove(ftDevice);
+			ftDevice.close();
 		}
     }
     
+    private FTDevice findDevice(String deviceName) {
+        for (FTDevice device : mDevices) {
+            if (device.getDeviceName().equals(deviceName)) {
+                return device;
+            }
+        }
+        return null;
+    }
+    
+    // Detect chip type by bcdDevice in the device descriptor
+    private FTChipType getChipType(UsbDevice device, UsbDeviceConnection connection) {
+        int bcdDevice = -1;
+        int iSerialNumber = -1;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR2) {
+            byte[] desc = connection.getRawDescriptors();
+            // device descriptor is 18 bytes
+            if (desc != null && desc.length >= 18) {
+                bcdDevice = (desc[12] & 0xff) | ((desc[13] & 0xff) << 8);
+                iSerialNumber = desc[16] & 0xff;
+            }
+        }
+        // FT232BM without serial number looks like FT232AM, which has no latency timer
+        boolean latencyTimer = (bcdDevice == 0x0200 && iSerialNumber == 0)
+                && hasLatencyTimer(connection);
+        FTChipType chipType = FTChipType.detect(device.getProductId(), bcdDevice, iSerialNumber,
+                latencyTimer);
+        Log.i(TAG, "Chip type : " + chipType);
+        return chipType;
+    }
+    
+    private boolean hasLatencyTimer(UsbDeviceConnection connection) {
+        byte[] buf = new byte[1];
+        return connection.controlTransfer(0xc0, 0x0a, 0, 0, buf, 1, 1000) == 1;   //get latency timer
+    }
+    
     // Sets the current USB device and interface
-    private FTSerialPort createPort(UsbDeviceConnection connection, String name, UsbInterface intf, int intfNo) {
+    private FTSerialPort createPort(UsbDeviceConnection connection, String name, UsbInterface intf, int intfNo,
+            FTChipType chipType) {
     	try {
             // intf.getId() doesn't return value I expected.
-            return new FTSerialPort(connection, name, intf, intfNo);
+            return new FTSerialPort(connection, name, intf, intfNo, chipType);
         } catch (Exception e) {
             Log.e(TAG, "error creating serial port", e);
         }
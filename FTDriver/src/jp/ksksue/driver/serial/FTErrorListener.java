@@ -0,0 +1,16 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * Failure of the reader of a port, called on the reader thread.
+ */
+public interface FTErrorListener {
+    // The reader thread stopped after errors bulk IN transfers failed in a
+    // row, e.g. the device was detached. Data received before is still
+    // readable; the port should be closed.
+    void onReadError(FTSerialPort port, int errors);
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.hardware.usb.UsbDeviceConnection;
+
+/*
+ * Event loop which receives on all ports of a device with one thread.
+ * UsbRequests are kept queued on the IN endpoint of every added port and
+ * a single requestWait of the connection reaps them. Each completion is
+ * dispatched to the port it belongs to, whose input stream reads it from
+ * its receive buffer.
+ *
+ *   FTEventLoop loop = device.getEventLoop();
+ *   for (FTSerialPort port : device.getPorts()) {
+ *       port.open(baudrate);
+ *       loop.addPort(port, 4, 4096, 65536);
+ *   }
+ *   loop.start();
+ *
+ * Since requestWait returns requests of any endpoint of the connection,
+ * there must be only one loop per UsbDeviceConnection: FTDevice keeps it,
+ * and FTSerialPort.startReadEngine() adds the port to it.
+ * Ports can be added and removed while the loop runs; only the requests of
+ * that port are queued or cancelled, those of the other ports stay queued.
+ * Closing a port removes it.
+ * The loop is closed when its last port is removed or stop() is called,
+ * and cannot be started again.
+ */
+public class FTEventLoop {
+    private FTRequestQueue mQueue;
+    private FTReadEngine mEngine;
+    private boolean mStarted;
+    private boolean mClosed;
+    private List<FTSerialPort> mPorts = new ArrayList<FTSerialPort>();
+    // first id, count and transfer size of the requests of each port
+    private List<int[]> mRequests = new ArrayList<int[]>();
+    // requests of removed ports, reused by ports added later
+    private List<int[]> mIdleRequests = new ArrayList<int[]>();
+
+    FTEventLoop(FTDevice device) {
+        this(device.getConnection());
+    }
+
+    FTEventLoop(UsbDeviceConnection connection) {
+        this(new FTUsbRequestQueue(connection));
+    }
+
+    FTEventLoop(FTRequestQueue queue) {
+        mQueue = queue;
+    }
+
+    // Receive on opened port with requestCount requests of transferSize bytes
+    // into a buffer of bufferSize bytes. returns false if the port is not
+    // opened or already has a reader, or the loop is closed. If the loop
+    // runs, the requests of the port are queued at once.
+    public synchronized boolean addPort(FTSerialPort port, int requestCount, int transferSize,
+            int bufferSize) {
+        if (mClosed || !port.startExternalReader(bufferSize, FTRingBuffer.DROP_OLDEST)) {
+            return false;
+        }
+        int first;
+        try {
+            first = takeRequests(port, requestCount);
+        } catch (RuntimeException e) {
+            // e.g. UsbRequest failed to initialize
+            port.stopExternalReader();
+            throw e;
+        }
+        int[] req = new int[] { first, requestCount, transferSize };
+        mPorts.add(port);
+        mRequests.add(req);
+        port.setEventLoop(this);
+        if (mEngine != null) {
+            setTargets(port, req);
+        }
+        return true;
+    }
+
+    private int takeRequests(FTSerialPort port, int count) {
+        for (int i = 0; i < mIdleRequests.size(); i++) {
+            int[] req = mIdleRequests.get(i);
+            if (req[1] == count) {
+                mIdleRequests.remove(i);
+                return req[0];
+            }
+        }
+        return mQueue.addRequests(port, count);
+    }
+
+    // Stop receiving on port. only its requests are cancelled, and what
+    // they had received is passed to the port before they are taken off.
+    // the loop is closed if it was the last one.
+    public synchronized void removePort(FTSerialPort port) {
+        int index = mPorts.indexOf(port);
+        if (index < 0) {
+            return;
+        }
+        int[] req = mRequests.get(index);
+        if (mEngine != null) {
+            for (int id = req[0]; id < req[0] + req[1]; id++) {
+                mEngine.removeTarget(id);
+            }
+        }
+        mPorts.remove(index);
+        mIdleRequests.add(mRequests.remove(index));
+        port.setEventLoop(null);
+        port.stopExternalReader();
+        if (mPorts.isEmpty()) {
+            close();
+        }
+    }
+
+    public synchronized void start() {
+        if (mClosed || mStarted || mPorts.isEmpty()) {
+            return;
+        }
+        mStarted = true;
+        startEngine();
+    }
+
+    public synchronized void stop() {
+        stopEngine();
+        for (FTSerialPort port : mPorts) {
+            port.setEventLoop(null);
+            port.stopExternalReader();
+        }
+        mPorts.clear();
+        mRequests.clear();
+        close();
+    }
+
+    public synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    private void startEngine() {
+        mEngine = new FTReadEngine(mQueue);
+        for (int i = 0; i < mPorts.size(); i++) {
+            setTargets(mPorts.get(i), mRequests.get(i));
+        }
+        mEngine.start();
+    }
+
+    private void setTargets(FTSerialPort port, int[] req) {
+        FTSerialInput input = port.getInput();
+        for (int id = req[0]; id < req[0] + req[1]; id++) {
+            mEngine.setTarget(id, input, req[2]);
+        }
+    }
+
+    private void stopEngine() {
+        if (mEngine != null) {
+            mEngine.stop();
+            mEngine = null;
+        }
+    }
+
+    private void close() {
+        stopEngine();
+        if (!mClosed) {
+            mClosed = true;
+            mIdleRequests.clear();
+            mQueue.close();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * Receives frames decoded by FTFramer.
+ */
+public interface FTFrameListener {
+    // frame[offset .. offset+length) is a complete frame. the array is
+    // reused for the next frame, so copy what should be kept.
+    void onFrame(byte[] frame, int offset, int length);
+}
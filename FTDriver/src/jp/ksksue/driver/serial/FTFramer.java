@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.io.IOException;
+
+/*
+ * Base of frame decoders. Received bytes are passed to decode() in pieces
+ * of any size, e.g. as they come in USB packets, and each complete frame is
+ * given to the listener from a buffer reused for every frame.
+ * A frame longer than the max frame size or a corrupt frame is dropped and
+ * counted, and decoding starts again at the next frame boundary.
+ */
+public abstract class FTFramer {
+    private final FTFrameListener mListener;
+    protected final byte[] mFrame;
+    protected int mFrameLen;
+    private byte[] mReadBuf;
+    private long mFrames;
+    private long mErrors;
+
+    protected FTFramer(int maxFrameSize, FTFrameListener listener) {
+        mFrame = new byte[maxFrameSize];
+        mListener = listener;
+    }
+
+    // Decode length bytes of buffer. may call the listener several times.
+    public abstract void decode(byte[] buffer, int offset, int length);
+
+    // Read received bytes of port and decode them. returns the number of bytes read.
+    public int read(FTSerialPort port) throws IOException {
+        if (mReadBuf == null) {
+            mReadBuf = new byte[FTSerialInput.MAX_TRANSFER_SIZE];
+        }
+        int len = port.getInputStream().read(mReadBuf, 0, mReadBuf.length);
+        if (len > 0) {
+            decode(mReadBuf, 0, len);
+        }
+        return len;
+    }
+
+    // Drop the partial frame.
+    public void reset() {
+        mFrameLen = 0;
+    }
+
+    public int getMaxFrameSize() {
+        return mFrame.length;
+    }
+
+    // Number of frames given to the listener
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    // Number of frames dropped as too long or corrupt
+    public long getErrorCount() {
+        return mErrors;
+    }
+
+    // Append c to the frame. returns false if the frame gets too long.
+    protected boolean append(byte c) {
+        if (mFrameLen >= mFrame.length) {
+            return false;
+        }
+        mFrame[mFrameLen++] = c;
+        return true;
+    }
+
+    protected void emit(byte[] frame, int offset, int length) {
+        mFrames++;
+        mListener.onFrame(frame, offset, length);
+    }
+
+    protected void error() {
+        mErrors++;
+        mFrameLen = 0;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Lock-free histogram of durations in nanoseconds with power of 2 buckets:
+ * bucket i counts durations in [2^i, 2^(i+1)), bucket 0 also counts 0.
+ * record() may be called by any thread and never waits.
+ */
+public class FTLatencyHistogram {
+    private static final int BUCKETS = 64;
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts.incrementAndGet(bucket(nanos));
+        long max;
+        while (nanos > (max = mMax.get()) && !mMax.compareAndSet(max, nanos)) {
+            // retry
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mMax.set(0);
+    }
+
+    // Copy of the counts. may be taken while durations are recorded.
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return new Snapshot(counts, mMax.get());
+    }
+
+    static int bucket(long nanos) {
+        return (nanos == 0)? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    public static class Snapshot {
+        private final long[] mCounts;
+        private final long mMax;
+        private final long mCount;
+
+        Snapshot(long[] counts, long max) {
+            mCounts = counts;
+            mMax = max;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            mCount = count;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        // Number of durations in [2^bucket, 2^(bucket+1)) ns
+        public long getBucketCount(int bucket) {
+            return mCounts[bucket];
+        }
+
+        public int getBucketCount() {
+            return mCounts.length;
+        }
+
+        // Upper bound of the bucket holding the given percentile (0-100)
+        // of the durations, or 0 if nothing was recorded.
+        public long getPercentile(double percentile) {
+            long rank = (long) Math.ceil(mCount * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min((i == 63)? Long.MAX_VALUE : (2L << i) - 1, mMax);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * Latency settings applied by FTSerialPort.setLatencyPreset.
+ * The chip sends received data to the host when its buffer is full, when the
+ * event character is received, or when the latency timer expires.
+ */
+public class FTLatencyPreset {
+    // chip default: 16ms, no event character
+    public static final FTLatencyPreset DEFAULT = new FTLatencyPreset(16, -1, 0);
+    // replies are sent within 1ms, and at once when a line ends
+    public static final FTLatencyPreset LOW_LATENCY = new FTLatencyPreset(1, '\n', 0);
+    // the chip fills whole packets, which are received 16KB at a time
+    public static final FTLatencyPreset THROUGHPUT = new FTLatencyPreset(255, -1, 16384);
+
+    private final int mLatencyTimer;
+    private final int mEventChar;
+    private final int mReadTransferSize;
+
+    // latencyTimer : 1-255 ms
+    // eventChar : character which flushes the chip's buffer, or -1 for none
+    // readTransferSize : bytes requested by one USB read, 0 for one packet
+    public FTLatencyPreset(int latencyTimer, int eventChar, int readTransferSize) {
+        mLatencyTimer = latencyTimer;
+        mEventChar = eventChar;
+        mReadTransferSize = readTransferSize;
+    }
+
+    public int getLatencyTimer() {
+        return mLatencyTimer;
+    }
+
+    public int getEventChar() {
+        return mEventChar;
+    }
+
+    public int getReadTransferSize() {
+        return mReadTransferSize;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * Frames preceded by their length in 1 or 2 bytes (big endian).
+ * A length larger than the max frame size is taken as corrupt input, and
+ * the decoder resynchronises by trying the next byte as a length.
+ */
+public class FTLengthFramer extends FTFramer {
+    private final int mPrefixSize;
+    // length being read, -1 while reading the prefix
+    private int mLength = -1;
+    private int mPrefixRead;
+    private int mPrefix;
+
+    public FTLengthFramer(int prefixSize, int maxFrameSize, FTFrameListener listener) {
+        super(maxFrameSize, listener);
+        if (prefixSize != 1 && prefixSize != 2) {
+            throw new IllegalArgumentException("prefix size " + prefixSize);
+        }
+        mPrefixSize = prefixSize;
+    }
+
+    @Override
+    public void decode(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            if (mLength < 0) {
+                mPrefix = (mPrefix << 8) | (buffer[i++] & 0xff);
+                if (++mPrefixRead < mPrefixSize) {
+                    continue;
+                }
+                int len = mPrefix & ((mPrefixSize == 1)? 0xff : 0xffff);
+                if (len > mFrame.length) {
+                    // resync: drop the first prefix byte and go on
+                    error();
+                    mPrefixRead--;
+                    continue;
+                }
+                mPrefixRead = 0;
+                mPrefix = 0;
+                mLength = len;
+                mFrameLen = 0;
+                if (len == 0) {
+                    emit(mFrame, 0, 0);
+                    mLength = -1;
+                }
+                continue;
+            }
+            int need = mLength - mFrameLen;
+            int avail = end - i;
+            if (mFrameLen == 0 && avail >= need) {
+                // whole frame is in buffer, no copy
+                emit(buffer, i, need);
+                i += need;
+                mLength = -1;
+                continue;
+            }
+            int len = Math.min(need, avail);
+            System.arraycopy(buffer, i, mFrame, mFrameLen, len);
+            mFrameLen += len;
+            i += len;
+            if (mFrameLen == mLength) {
+                emit(mFrame, 0, mFrameLen);
+                mFrameLen = 0;
+                mLength = -1;
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mLength = -1;
+        mPrefixRead = 0;
+        mPrefix = 0;
+    }
+
+    // Write the length prefix and src to dst. returns the length written.
+    // length must fit in the prefix: at most 255 for 1 byte, 65535 for 2.
+    public static int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset,
+            int prefixSize) {
+        if (prefixSize != 1 && prefixSize != 2) {
+            throw new IllegalArgumentException("prefix size " + prefixSize);
+        }
+        int max = (prefixSize == 1)? 0xff : 0xffff;
+        if (length < 0 || length > max) {
+            throw new IllegalArgumentException("length " + length + " does not fit in " + prefixSize + " prefix bytes");
+        }
+        if (prefixSize == 2) {
+            dst[dstOffset++] = (byte) (length >> 8);
+        }
+        dst[dstOffset] = (byte) length;
+        System.arraycopy(src, offset, dst, dstOffset + 1, length);
+        return length + prefixSize;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Modem and line status of a port, taken from the 2 status bytes
+ * at the head of every packet the chip sends.
+ */
+public class FTModemStatus {
+    // 1st status byte : modem status
+    public static final int CTS = 0x10;
+    public static final int DSR = 0x20;
+    public static final int RI = 0x40;
+    public static final int DCD = 0x80;
+    private static final int MODEM_MASK = CTS | DSR | RI | DCD;
+
+    // 2nd status byte : line status
+    public static final int OVERRUN_ERROR = 0x02;
+    public static final int PARITY_ERROR = 0x04;
+    public static final int FRAMING_ERROR = 0x08;
+    public static final int BREAK_INTERRUPT = 0x10;
+    public static final int FIFO_ERROR = 0x80;
+    private static final int ERROR_MASK = OVERRUN_ERROR | PARITY_ERROR | FRAMING_ERROR
+            | BREAK_INTERRUPT | FIFO_ERROR;
+
+    private volatile int mModemStatus;
+    private volatile int mLineStatus;
+    private volatile FTStatusListener mListener;
+    private final AtomicLong mOverruns = new AtomicLong();
+    private final AtomicLong mParityErrors = new AtomicLong();
+    private final AtomicLong mFramingErrors = new AtomicLong();
+    private final AtomicLong mBreaks = new AtomicLong();
+
+    // Called with the status bytes of each received packet.
+    void update(int modem, int line) {
+        modem &= MODEM_MASK;
+        int old = mModemStatus;
+        mModemStatus = modem;
+        mLineStatus = line & 0xff;
+        FTStatusListener listener = mListener;
+        if (old != modem && listener != null) {
+            listener.onModemStatusChanged(old, modem);
+        }
+        if ((line & ERROR_MASK) == 0) {
+            return;
+        }
+        if ((line & OVERRUN_ERROR) != 0) {
+            mOverruns.incrementAndGet();
+        }
+        if ((line & PARITY_ERROR) != 0) {
+            mParityErrors.incrementAndGet();
+        }
+        if ((line & FRAMING_ERROR) != 0) {
+            mFramingErrors.incrementAndGet();
+        }
+        if ((line & BREAK_INTERRUPT) != 0) {
+            mBreaks.incrementAndGet();
+        }
+        if (listener != null) {
+            listener.onLineError(line & 0xff);
+        }
+    }
+
+    public void setListener(FTStatusListener listener) {
+        mListener = listener;
+    }
+
+    // CTS, DSR, RI and DCD bits of the last packet
+    public int getModemStatus() {
+        return mModemStatus;
+    }
+
+    // line status byte of the last packet
+    public int getLineStatus() {
+        return mLineStatus;
+    }
+
+    public boolean isCts() {
+        return (mModemStatus & CTS) != 0;
+    }
+
+    public boolean isDsr() {
+        return (mModemStatus & DSR) != 0;
+    }
+
+    public boolean isRi() {
+        return (mModemStatus & RI) != 0;
+    }
+
+    public boolean isDcd() {
+        return (mModemStatus & DCD) != 0;
+    }
+
+    // Number of packets which reported each error
+    public long getOverrunCount() {
+        return mOverruns.get();
+    }
+
+    public long getParityErrorCount() {
+        return mParityErrors.get();
+    }
+
+    public long getFramingErrorCount() {
+        return mFramingErrors.get();
+    }
+
+    public long getBreakCount() {
+        return mBreaks.get();
+    }
+
+    public void resetCounters() {
+        mOverruns.set(0);
+        mParityErrors.set(0);
+        mFramingErrors.set(0);
+        mBreaks.set(0);
+    }
+}
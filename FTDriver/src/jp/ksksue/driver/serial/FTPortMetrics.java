@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Statistics of a port, see FTSerialPort.getMetrics().
+ * Counters and histograms are updated by the I/O threads without locks;
+ * snapshot() can be polled from any thread, e.g. by a monitoring screen.
+ */
+public class FTPortMetrics {
+    // arrival marks of received data not read yet
+    private static final int MARKS = 64;
+
+    final AtomicLong mBytesIn = new AtomicLong();
+    final AtomicLong mPacketsIn = new AtomicLong();
+    final AtomicLong mEmptyPacketsIn = new AtomicLong();
+    final AtomicLong mTransfersIn = new AtomicLong();
+    final AtomicLong mErrorsIn = new AtomicLong();
+    final AtomicLong mBytesOut = new AtomicLong();
+    final AtomicLong mPacketsOut = new AtomicLong();
+    final AtomicLong mTransfersOut = new AtomicLong();
+    final AtomicLong mShortWrites = new AtomicLong();
+    final AtomicLong mErrorsOut = new AtomicLong();
+    private final FTLatencyHistogram mBulkInLatency = new FTLatencyHistogram();
+    private final FTLatencyHistogram mBulkOutLatency = new FTLatencyHistogram();
+    private final FTLatencyHistogram mDeliveryLatency = new FTLatencyHistogram();
+
+    // receive buffer position after each arrival and its time.
+    // written by the reader, taken by the consumer.
+    private final long[] mMarkPos = new long[MARKS];
+    private final long[] mMarkTime = new long[MARKS];
+    private volatile long mMarkHead;
+    private volatile long mMarkTail;
+
+    // A transfer of len bytes of packets holding payloadLen bytes was received.
+    // only the last packet of a transfer can be short, so at most one
+    // packet has no payload.
+    void received(int len, int payloadLen, int packetSize) {
+        mTransfersIn.incrementAndGet();
+        if (len <= 0) {
+            return;
+        }
+        mBytesIn.addAndGet(payloadLen);
+        mPacketsIn.addAndGet((len + packetSize - 1) / packetSize);
+        if ((len - 1) % packetSize < 2) {
+            mEmptyPacketsIn.incrementAndGet();
+        }
+    }
+
+    // writeLen bytes were given to a bulk OUT transfer which sent len bytes.
+    void sent(int writeLen, int len, int packetSize) {
+        mTransfersOut.incrementAndGet();
+        if (len < 0) {
+            mErrorsOut.incrementAndGet();
+            return;
+        }
+        if (len < writeLen) {
+            mShortWrites.incrementAndGet();
+        }
+        mBytesOut.addAndGet(len);
+        mPacketsOut.addAndGet((len + packetSize - 1) / packetSize);
+    }
+
+    FTLatencyHistogram bulkInLatency() {
+        return mBulkInLatency;
+    }
+
+    FTLatencyHistogram bulkOutLatency() {
+        return mBulkOutLatency;
+    }
+
+    // Reader: data up to writePos of the receive buffer arrived at time.
+    // not marked if the consumer is MARKS arrivals behind.
+    void arrived(long writePos, long time) {
+        long tail = mMarkTail;
+        if (tail - mMarkHead < MARKS) {
+            int i = (int) (tail % MARKS);
+            mMarkPos[i] = writePos;
+            mMarkTime[i] = time;
+            mMarkTail = tail + 1;
+        }
+    }
+
+    // Consumer: data up to readPos of the receive buffer has been read.
+    void consumed(long readPos) {
+        long head = mMarkHead;
+        if (head == mMarkTail) {
+            return;
+        }
+        long now = System.nanoTime();
+        while (head < mMarkTail && mMarkPos[(int) (head % MARKS)] <= readPos) {
+            mDeliveryLatency.record(now - mMarkTime[(int) (head % MARKS)]);
+            head++;
+        }
+        mMarkHead = head;
+    }
+
+    // Forget the marks when the receive buffer is replaced.
+    void resetMarks() {
+        mMarkHead = mMarkTail;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    public void reset() {
+        mBytesIn.set(0);
+        mPacketsIn.set(0);
+        mEmptyPacketsIn.set(0);
+        mTransfersIn.set(0);
+        mErrorsIn.set(0);
+        mBytesOut.set(0);
+        mPacketsOut.set(0);
+        mTransfersOut.set(0);
+        mShortWrites.set(0);
+        mErrorsOut.set(0);
+        mBulkInLatency.reset();
+        mBulkOutLatency.reset();
+        mDeliveryLatency.reset();
+    }
+
+    // Values at the time of snapshot(). each value is read atomically,
+    // but not all of them at the same instant.
+    public static class Snapshot {
+        private final long mTime = System.nanoTime();
+        private final long mBytesIn;
+        private final long mPacketsIn;
+        private final long mEmptyPacketsIn;
+        private final long mTransfersIn;
+        private final long mErrorsIn;
+        private final long mBytesOut;
+        private final long mPacketsOut;
+        private final long mTransfersOut;
+        private final long mShortWrites;
+        private final long mErrorsOut;
+        private final FTLatencyHistogram.Snapshot mBulkInLatency;
+        private final FTLatencyHistogram.Snapshot mBulkOutLatency;
+        private final FTLatencyHistogram.Snapshot mDeliveryLatency;
+
+        Snapshot(FTPortMetrics m) {
+            mBytesIn = m.mBytesIn.get();
+            mPacketsIn = m.mPacketsIn.get();
+            mEmptyPacketsIn = m.mEmptyPacketsIn.get();
+            mTransfersIn = m.mTransfersIn.get();
+            mErrorsIn = m.mErrorsIn.get();
+            mBytesOut = m.mBytesOut.get();
+            mPacketsOut = m.mPacketsOut.get();
+            mTransfersOut = m.mTransfersOut.get();
+            mShortWrites = m.mShortWrites.get();
+            mErrorsOut = m.mErrorsOut.get();
+            mBulkInLatency = m.mBulkInLatency.snapshot();
+            mBulkOutLatency = m.mBulkOutLatency.snapshot();
+            mDeliveryLatency = m.mDeliveryLatency.snapshot();
+        }
+
+        // System.nanoTime() when taken, to compute rates between snapshots
+        public long getTime() {
+            return mTime;
+        }
+
+        // payload bytes received
+        public long getBytesIn() {
+            return mBytesIn;
+        }
+
+        public long getPacketsIn() {
+            return mPacketsIn;
+        }
+
+        // packets holding only the status bytes
+        public long getEmptyPacketsIn() {
+            return mEmptyPacketsIn;
+        }
+
+        public long getTransfersIn() {
+            return mTransfersIn;
+        }
+
+        // failed or timed out bulk IN transfers
+        public long getErrorsIn() {
+            return mErrorsIn;
+        }
+
+        public long getBytesOut() {
+            return mBytesOut;
+        }
+
+        public long getPacketsOut() {
+            return mPacketsOut;
+        }
+
+        public long getTransfersOut() {
+            return mTransfersOut;
+        }
+
+        // bulk OUT transfers which sent less than given
+        public long getShortWrites() {
+            return mShortWrites;
+        }
+
+        public long getErrorsOut() {
+            return mErrorsOut;
+        }
+
+        // duration of synchronous bulk IN transfers
+        public FTLatencyHistogram.Snapshot getBulkInLatency() {
+            return mBulkInLatency;
+        }
+
+        public FTLatencyHistogram.Snapshot getBulkOutLatency() {
+            return mBulkOutLatency;
+        }
+
+        // time from received data entering the receive buffer to being read
+        public FTLatencyHistogram.Snapshot getDeliveryLatency() {
+            return mDeliveryLatency;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.nio.ByteBuffer;
+
+import android.util.Log;
+
+/*
+ * Receive engine which keeps all requests of a FTRequestQueue queued on the
+ * IN endpoints, so the chip always has a transfer to send its FIFO to.
+ * A completed request is copied out and re-queued at once, then its payload
+ * is passed to the FTSerialInput the request belongs to.
+ * One thread serves all requests of the queue, which may be on endpoints of
+ * several ports of a connection. Requests without a target are not queued.
+ * Targets can be added and removed while the engine runs; the requests of
+ * the other targets stay queued.
+ * The queue is left open for its owner (FTEventLoop) to close.
+ */
+class FTReadEngine implements Runnable {
+    private static final String TAG = FTReadEngine.class.getSimpleName();
+    private FTRequestQueue mQueue;
+    // per request id
+    private FTSerialInput[] mInputs = new FTSerialInput[0];
+    private int[] mTransferSizes = new int[0];
+    private ByteBuffer[] mBuffers = new ByteBuffer[0];
+    private boolean[] mQueued = new boolean[0];
+    // cancelled by removeTarget, to be reaped and not queued again
+    private boolean[] mRemoving = new boolean[0];
+    private int mQueuedCount;
+    // engine thread only
+    private byte[] mRecvBuf = new byte[0];
+    private Thread mThread;
+    // held to queue, cancel and change targets, so that no request is
+    // queued again after stop() or removeTarget() cancelled it
+    private final Object mLock = new Object();
+    private boolean mStarted;
+    private boolean mStop;
+
+    public FTReadEngine(FTRequestQueue queue) {
+        mQueue = queue;
+    }
+
+    // Request id receives transferSize bytes for input. queued at once if
+    // the engine runs.
+    public void setTarget(int id, FTSerialInput input, int transferSize) {
+        transferSize = input.roundTransferSize(transferSize);
+        synchronized (mLock) {
+            if (id >= mInputs.length) {
+                grow(id + 1);
+            }
+            mInputs[id] = input;
+            if (mQueued[id]) {
+                // the queued request keeps its buffer
+                transferSize = Math.min(transferSize, mBuffers[id].capacity());
+            } else if (mBuffers[id] == null || mBuffers[id].capacity() < transferSize) {
+                mBuffers[id] = ByteBuffer.allocateDirect(transferSize);
+            }
+            mTransferSizes[id] = transferSize;
+            if (mStarted && !mStop) {
+                queue(id);
+                if (mThread == null && mQueuedCount > 0) {
+                    startThread();
+                }
+            }
+        }
+    }
+
+    // Stop receiving on request id. the request is cancelled, and the data
+    // it has received is passed to its input before this returns (unless
+    // called on the engine thread, e.g. by a listener which closes a port).
+    public void removeTarget(int id) {
+        synchronized (mLock) {
+            if (id >= mInputs.length || mInputs[id] == null) {
+                return;
+            }
+            if (!mQueued[id]) {
+                clearTarget(id);
+                return;
+            }
+            mRemoving[id] = true;
+            mQueue.cancel(id);
+            if (Thread.currentThread() == mThread) {
+                return;
+            }
+            while (mQueued[id] && mThread != null) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public void start() {
+        synchronized (mLock) {
+            if (mStarted) {
+                return;
+            }
+            mStarted = true;
+            for (int i = 0; i < mInputs.length; i++) {
+                if (mInputs[i] != null) {
+                    queue(i);
+                }
+            }
+            if (mQueuedCount > 0) {
+                startThread();
+            }
+        }
+    }
+
+    // Cancel the requests and wait for the thread. may be called again.
+    public void stop() {
+        Thread thread;
+        synchronized (mLock) {
+            mStop = true;
+            for (int i = 0; i < mQueued.length; i++) {
+                if (mQueued[i]) {
+                    mQueue.cancel(i);
+                }
+            }
+            thread = mThread;
+        }
+        if (thread == null || thread == Thread.currentThread()) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void grow(int count) {
+        FTSerialInput[] inputs = new FTSerialInput[count];
+        int[] sizes = new int[count];
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        boolean[] queued = new boolean[count];
+        boolean[] removing = new boolean[count];
+        int n = mInputs.length;
+        System.arraycopy(mInputs, 0, inputs, 0, n);
+        System.arraycopy(mTransferSizes, 0, sizes, 0, n);
+        System.arraycopy(mBuffers, 0, buffers, 0, n);
+        System.arraycopy(mQueued, 0, queued, 0, n);
+        System.arraycopy(mRemoving, 0, removing, 0, n);
+        mInputs = inputs;
+        mTransferSizes = sizes;
+        mBuffers = buffers;
+        mQueued = queued;
+        mRemoving = removing;
+    }
+
+    // called with mLock held
+    private void queue(int id) {
+        if (mQueued[id]) {
+            // still queued after a removal, taken over by the new target
+            mRemoving[id] = false;
+            return;
+        }
+        if (mQueue.queue(id, mBuffers[id], mTransferSizes[id])) {
+            mQueued[id] = true;
+            mQueuedCount++;
+        } else {
+            Log.e(TAG, "failed to queue request " + id);
+        }
+    }
+
+    private void clearTarget(int id) {
+        mInputs[id] = null;
+        mRemoving[id] = false;
+    }
+
+    private void startThread() {
+        mThread = new Thread(this, TAG);
+        mThread.start();
+    }
+
+    @Override
+    public void run() {
+        for (;;) {
+            int id = mQueue.requestWait();
+            if (id < 0 && id != FTRequestQueue.UNKNOWN_REQUEST) {
+                Log.e(TAG, "requestWait failed");
+                break;
+            }
+            FTSerialInput input;
+            int len;
+            synchronized (mLock) {
+                if (id < 0 || id >= mQueued.length || !mQueued[id]) {
+                    // not one of ours, they are still queued
+                    continue;
+                }
+                mQueued[id] = false;
+                mQueuedCount--;
+                ByteBuffer buf = mBuffers[id];
+                len = buf.position();
+                if (mRecvBuf.length < len) {
+                    mRecvBuf = new byte[mBuffers[id].capacity()];
+                }
+                buf.flip();
+                buf.get(mRecvBuf, 0, len);
+                input = mInputs[id];
+                if (mRemoving[id]) {
+                    clearTarget(id);
+                    mLock.notifyAll();
+                } else if (!mStop) {
+                    queue(id);
+                }
+                if (mQueuedCount == 0) {
+                    mThread = null;
+                    mLock.notifyAll();
+                }
+            }
+            // data received before a cancel is delivered too
+            int payloadLen = input.decode(mRecvBuf, len);
+            if (payloadLen > 0) {
+                input.feed(mRecvBuf, 0, payloadLen);
+            }
+            synchronized (mLock) {
+                if (mThread != Thread.currentThread()) {
+                    // all requests were reaped; setTarget starts a new thread
+                    return;
+                }
+            }
+        }
+        synchronized (mLock) {
+            if (mThread == Thread.currentThread()) {
+                mThread = null;
+            }
+            mLock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.util.concurrent.TimeUnit;
+
+import android.util.Log;
+
+/*
+ * Reader thread which drains the IN endpoint with synchronous transfers
+ * and stores the payload into the input stream's ring buffer.
+ * A transfer failing before its timeout is an error: the thread waits
+ * longer after each one in a row, and stops and tells the port after
+ * MAX_ERRORS of them.
+ */
+class FTReaderThread extends Thread {
+    private static final String TAG = FTReaderThread.class.getSimpleName();
+    // bulkTransfer timeout, so the thread can notice stop().
+    private static final int READ_TIMEOUT = 100;
+    // errors in a row before giving up, and the wait after the first one,
+    // doubled after each next one up to READ_TIMEOUT
+    static final int MAX_ERRORS = 10;
+    private static final int FIRST_BACKOFF = 1;
+    private FTSerialPort mPort;
+    private FTSerialInput mInput;
+    private byte[] mRecvBuf;
+    private volatile boolean mStop;
+
+    public FTReaderThread(FTSerialPort port) {
+        super(TAG);
+        mPort = port;
+        mInput = port.getInput();
+        mRecvBuf = new byte[mInput.getTransferSize()];
+    }
+
+    public void stopReading() {
+        mStop = true;
+        if (Thread.currentThread() == this) {
+            // called by the error listener
+            return;
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        int errors = 0;
+        while (!mStop) {
+            long start = System.nanoTime();
+            int len = mInput.receive(mRecvBuf, mRecvBuf.length, READ_TIMEOUT);
+            if (len >= 0) {
+                errors = 0;
+                if (len > 0) {
+                    mInput.feed(mRecvBuf, 0, len);
+                }
+                continue;
+            }
+            if (mStop || System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(READ_TIMEOUT)) {
+                // timeout. the chip sends status bytes at least every latency
+                // timer period, so this is rare while the device is attached.
+                continue;
+            }
+            if (++errors >= MAX_ERRORS) {
+                Log.e(TAG, "bulkTransfer failed " + errors + " times, reader stopped");
+                mPort.readerFailed(errors);
+                return;
+            }
+            try {
+                Thread.sleep(Math.min(FIRST_BACKOFF << (errors - 1), READ_TIMEOUT));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/*
+ * Plays a capture back through the input path of a port: the recorded
+ * transfers are decoded by FTSerialInput and buffered like received data.
+ * Runs without USB, e.g. on a desktop JVM.
+ *
+ *   FTReplay replay = new FTReplay(dir, prefix, 1.0);
+ *   replay.setDataListener(listener);
+ *   replay.start(65536);
+ *   replay.join();
+ */
+public class FTReplay {
+    private static final String TAG = FTReplay.class.getSimpleName();
+    // bulkIn timeout, so the thread can notice stop().
+    private static final int READ_TIMEOUT = 100;
+    private final FTCaptureReader mReader;
+    private final FTReplayTransport mTransport;
+    private final FTSerialInput mInput;
+    private Thread mThread;
+    private volatile boolean mStop;
+
+    // speed 1 plays at the recorded timing, 2 twice as fast, 0 as fast as possible.
+    public FTReplay(File capture, double speed) throws IOException {
+        this(new FTCaptureReader(capture), speed);
+    }
+
+    // Play all files dir/prefix-NNNN.ftcap of a capture, in the order they were written.
+    public FTReplay(File dir, String prefix, double speed) throws IOException {
+        this(new FTCaptureReader(dir, prefix), speed);
+    }
+
+    // Play files one after another.
+    public FTReplay(List<File> files, double speed) throws IOException {
+        this(new FTCaptureReader(files), speed);
+    }
+
+    private FTReplay(FTCaptureReader reader, double speed) {
+        mReader = reader;
+        mTransport = new FTReplayTransport(mReader, speed);
+        mInput = new FTSerialInput(mTransport);
+        mInput.setTransferSize(FTSerialInput.MAX_TRANSFER_SIZE);
+    }
+
+    // Start playing into a buffer of bufferSize bytes. the player waits
+    // while the buffer is full, so no data is dropped.
+    public synchronized void start(int bufferSize) {
+        if (mThread != null) {
+            return;
+        }
+        mInput.startBuffer(new FTRingBuffer(bufferSize, FTRingBuffer.BLOCK));
+        mStop = false;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                play();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mStop = true;
+        mInput.stopBuffer();
+        join();
+        mThread = null;
+        try {
+            mReader.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    // Wait until all records are played or stop() is called.
+    public void join() {
+        Thread thread = mThread;
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void play() {
+        byte[] recvBuf = new byte[mInput.getTransferSize()];
+        while (!mStop) {
+            int len = mInput.receive(recvBuf, recvBuf.length, READ_TIMEOUT);
+            if (len > 0) {
+                mInput.feed(recvBuf, 0, len);
+            } else if (len < 0 && mTransport.isFinished()) {
+                break;
+            }
+        }
+    }
+
+    // Played data, read without waiting
+    public InputStream getInputStream() {
+        return mInput;
+    }
+
+    // Call listener as played data is buffered, like FTSerialPort.setDataListener().
+    public void setDataListener(FTDataListener listener) {
+        setDataListener(listener, null);
+    }
+
+    public void setDataListener(FTDataListener listener, Executor executor) {
+        mInput.setDispatcher((listener == null)? null : new FTDataDispatcher(listener, executor, 0, 0, mInput.getMetrics()));
+    }
+
+    public FTModemStatus getModemStatus() {
+        return mInput.getStatus();
+    }
+
+    public FTPortMetrics getMetrics() {
+        return mInput.getMetrics();
+    }
+
+    public FTReplayTransport getTransport() {
+        return mTransport;
+    }
+
+    public boolean isFinished() {
+        return mTransport.isFinished();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+
+/*
+ * FTTransport which receives the RX records of a capture, status bytes
+ * included, at their recorded timing divided by speed. speed 0 receives
+ * them as fast as they are read. Sent data is counted and discarded;
+ * TX records of the capture are skipped.
+ */
+public class FTReplayTransport implements FTTransport {
+    private static final String TAG = FTReplayTransport.class.getSimpleName();
+    private final FTCaptureReader mReader;
+    private final double mSpeed;
+    private final int mPacketSize;
+    // rest of the current RX record
+    private int mPendingPos;
+    private int mPendingLen;
+    private long mRecordTime;
+    private long mFirstRecordTime = -1;
+    private long mStartNanos;
+    private volatile boolean mFinished;
+    private volatile long mMaxLateNanos;
+    private volatile long mBytesIn;
+    private volatile long mBytesOut;
+
+    public FTReplayTransport(FTCaptureReader reader, double speed) {
+        mReader = reader;
+        mSpeed = speed;
+        mPacketSize = reader.getPacketSize();
+    }
+
+    @Override
+    public int getPacketSize() {
+        return mPacketSize;
+    }
+
+    // Called by one reader at a time.
+    @Override
+    public int bulkIn(byte[] buffer, int length, int timeout) {
+        if (mPendingLen == 0 && !nextRxRecord()) {
+            mFinished = true;
+            return -1;
+        }
+        if (mSpeed > 0) {
+            long due = mStartNanos + (long) ((mRecordTime - mFirstRecordTime) / mSpeed);
+            long now = System.nanoTime();
+            if (timeout > 0 && due - now > TimeUnit.MILLISECONDS.toNanos(timeout)) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(timeout));
+                return -1;
+            }
+            while ((now = System.nanoTime()) < due) {
+                LockSupport.parkNanos(due - now);
+            }
+            mMaxLateNanos = Math.max(mMaxLateNanos, now - due);
+        }
+        // whole packets, like a real transfer
+        int len = Math.min(mPendingLen, (length >= mPacketSize)? length - (length % mPacketSize) : length);
+        System.arraycopy(mReader.getData(), mPendingPos, buffer, 0, len);
+        mPendingPos += len;
+        mPendingLen -= len;
+        mBytesIn += len;
+        return len;
+    }
+
+    @Override
+    public int bulkOut(byte[] buffer, int offset, int length, int timeout) {
+        mBytesOut += length;
+        return length;
+    }
+
+    // Control requests are accepted and ignored.
+    @Override
+    public int controlTransfer(int requestType, int request, int value, int index,
+            byte[] buffer, int length, int timeout) {
+        return 0;
+    }
+
+    @Override
+    public boolean claim() {
+        return true;
+    }
+
+    @Override
+    public void release() {
+    }
+
+    private boolean nextRxRecord() {
+        try {
+            while (mReader.next()) {
+                if (mReader.getDirection() != FTCapture.RX) {
+                    continue;
+                }
+                mRecordTime = mReader.getTime();
+                if (mFirstRecordTime < 0) {
+                    mFirstRecordTime = mRecordTime;
+                    mStartNanos = System.nanoTime();
+                }
+                mPendingPos = 0;
+                mPendingLen = mReader.getLength();
+                return true;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "failed to read capture", e);
+        }
+        return false;
+    }
+
+    // true when all RX records have been received
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    // Largest delay of a record from its scaled recorded time
+    public long getMaxLateNanos() {
+        return mMaxLateNanos;
+    }
+
+    public long getBytesIn() {
+        return mBytesIn;
+    }
+
+    public long getBytesOut() {
+        return mBytesOut;
+    }
+}
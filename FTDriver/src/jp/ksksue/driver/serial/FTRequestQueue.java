@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Asynchronous IN transfers used by FTReadEngine.
+ * Requests are identified by id (0 .. count-1). This is implemented with
+ * UsbRequest on Android (FTUsbRequestQueue) and can be implemented in memory
+ * to run the engine without USB.
+ */
+public interface FTRequestQueue {
+    // returned by requestWait for a completed request which is not of this queue
+    int UNKNOWN_REQUEST = -2;
+
+    // Number of requests which can be queued at the same time.
+    int getRequestCount();
+
+    // Add count requests on the IN endpoint of port and return id of the first one.
+    int addRequests(FTSerialPort port, int count);
+
+    // Queue request id to receive up to length bytes into buffer from position 0.
+    boolean queue(int id, ByteBuffer buffer, int length);
+
+    // Wait for a queued request to complete and return its id, -1 on error
+    // or UNKNOWN_REQUEST. the received length is the position of the
+    // request's buffer.
+    int requestWait();
+
+    // Cancel request id. it is returned by requestWait.
+    void cancel(int id);
+
+    void close();
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Lock-free byte ring buffer for one producer thread and one consumer thread.
+ * The producer is the port's reader, the consumer is the application.
+ * head and tail are running counts of bytes read and written.
+ * The producer moves head only when it drops the oldest bytes, so the
+ * consumer takes bytes by compareAndSet of head and retries if they were
+ * dropped while it was copying them. A head read before such a drop may
+ * be more than the capacity behind tail; the consumer then reads head again
+ * before copying anything.
+ */
+public class FTRingBuffer {
+    // what write() does when the buffer is full
+    public static final int DROP_OLDEST = 0;
+    public static final int DROP_NEWEST = 1;
+    public static final int BLOCK = 2;
+
+    private final byte[] mBuf;
+    private final int mMask;
+    private final AtomicLong mHead = new AtomicLong();
+    private volatile long mTail;
+    private volatile int mPolicy;
+    private volatile boolean mClosed;
+    private volatile Thread mBlockedProducer;
+    private volatile Thread mWaitingConsumer;
+
+    // statistics
+    private volatile int mHighWaterMark;
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mOverflows = new AtomicLong();
+
+    // capacity is rounded up to a power of 2.
+    public FTRingBuffer(int capacity, int policy) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mBuf = new byte[size];
+        mMask = size - 1;
+        mPolicy = policy;
+    }
+
+    public int capacity() {
+        return mBuf.length;
+    }
+
+    public void setOverflowPolicy(int policy) {
+        mPolicy = policy;
+        LockSupport.unpark(mBlockedProducer);
+    }
+
+    public int getOverflowPolicy() {
+        return mPolicy;
+    }
+
+    // Total bytes written/read since created
+    long writePosition() {
+        return mTail;
+    }
+
+    long readPosition() {
+        return mHead.get();
+    }
+
+    // Number of bytes which can be read without waiting.
+    public int available() {
+        return (int) Math.min(mTail - mHead.get(), mBuf.length);
+    }
+
+    // Producer: store length bytes of buffer. returns the number of stored bytes,
+    // which is less than length only when bytes are dropped or the buffer is closed.
+    public int write(byte[] buffer, int offset, int length) {
+        int size = mBuf.length;
+        int written = 0;
+        if (length > size && mPolicy == DROP_OLDEST) {
+            // only the last part of buffer can remain.
+            int skip = length - size;
+            mDropped.addAndGet(skip);
+            mOverflows.incrementAndGet();
+            offset += skip;
+            length = size;
+        }
+        while (written < length && !mClosed) {
+            long tail = mTail;
+            long head = mHead.get();
+            int free = size - (int) (tail - head);
+            int len = length - written;
+            if (len > free) {
+                int policy = mPolicy;
+                if (policy == DROP_OLDEST) {
+                    int drop = len - free;
+                    if (!mHead.compareAndSet(head, head + drop)) {
+                        // consumer took some bytes, try again.
+                        continue;
+                    }
+                    mDropped.addAndGet(drop);
+                    mOverflows.incrementAndGet();
+                } else if (policy == DROP_NEWEST) {
+                    mDropped.addAndGet(len - free);
+                    mOverflows.incrementAndGet();
+                    length = written + free;
+                    len = free;
+                } else {
+                    if (free == 0) {
+                        mBlockedProducer = Thread.currentThread();
+                        if (mHead.get() == head && !mClosed) {
+                            LockSupport.park(this);
+                        }
+                        mBlockedProducer = null;
+                        continue;
+                    }
+                    len = free;
+                }
+            }
+            int pos = (int) tail & mMask;
+            int first = Math.min(len, size - pos);
+            System.arraycopy(buffer, offset + written, mBuf, pos, first);
+            System.arraycopy(buffer, offset + written + first, mBuf, 0, len - first);
+            mTail = tail + len;
+            written += len;
+
+            int used = (int) (tail + len - mHead.get());
+            if (used > mHighWaterMark) {
+                mHighWaterMark = used;
+            }
+            LockSupport.unpark(mWaitingConsumer);
+        }
+        return written;
+    }
+
+    // Consumer: read up to length bytes without waiting. returns 0 if empty.
+    public int read(byte[] buffer, int offset, int length) {
+        for (;;) {
+            long head = mHead.get();
+            long used = mTail - head;
+            if (used > mBuf.length) {
+                // the oldest bytes were dropped after head was read
+                continue;
+            }
+            int len = Math.min(length, (int) used);
+            if (len <= 0) {
+                return 0;
+            }
+            int pos = (int) head & mMask;
+            int first = Math.min(len, mBuf.length - pos);
+            System.arraycopy(mBuf, pos, buffer, offset, first);
+            System.arraycopy(mBuf, 0, buffer, offset + first, len - first);
+            if (mHead.compareAndSet(head, head + len)) {
+                LockSupport.unpark(mBlockedProducer);
+                return len;
+            }
+        }
+    }
+
+    // Consumer: read into dst up to its remaining bytes without waiting.
+    // returns 0 if empty.
+    public int read(ByteBuffer dst) {
+        int start = dst.position();
+        for (;;) {
+            long head = mHead.get();
+            long used = mTail - head;
+            if (used > mBuf.length) {
+                // the oldest bytes were dropped after head was read
+                continue;
+            }
+            int len = Math.min(dst.remaining(), (int) used);
+            if (len <= 0) {
+                return 0;
+            }
+            int pos = (int) head & mMask;
+            int first = Math.min(len, mBuf.length - pos);
+            dst.put(mBuf, pos, first);
+            dst.put(mBuf, 0, len - first);
+            if (mHead.compareAndSet(head, head + len)) {
+                LockSupport.unpark(mBlockedProducer);
+                return len;
+            }
+            dst.position(start);
+        }
+    }
+
+    // Consumer: read one byte without waiting. returns -1 if empty.
+    public int read() {
+        for (;;) {
+            long head = mHead.get();
+            if (mTail == head) {
+                return -1;
+            }
+            int c = mBuf[(int) head & mMask] & 0xff;
+            if (mHead.compareAndSet(head, head + 1)) {
+                LockSupport.unpark(mBlockedProducer);
+                return c;
+            }
+        }
+    }
+
+    // Consumer: return the next byte without removing it, or -1 if empty.
+    public int peek() {
+        for (;;) {
+            long head = mHead.get();
+            if (mTail == head) {
+                return -1;
+            }
+            int c = mBuf[(int) head & mMask] & 0xff;
+            if (mHead.get() == head) {
+                return c;
+            }
+        }
+    }
+
+    // Consumer: wait until some bytes are available, up to timeoutMillis.
+    // returns the number of available bytes.
+    public int waitForData(long timeoutMillis) {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        int avail;
+        while ((avail = available()) == 0 && !mClosed) {
+            long rest = deadline - System.nanoTime();
+            if (rest <= 0) {
+                break;
+            }
+            mWaitingConsumer = Thread.currentThread();
+            if (available() == 0) {
+                LockSupport.parkNanos(this, rest);
+            }
+            mWaitingConsumer = null;
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return avail;
+    }
+
+    // Consumer: discard all bytes.
+    public void clear() {
+        long head;
+        do {
+            head = mHead.get();
+        } while (!mHead.compareAndSet(head, Math.max(head, mTail)));
+        LockSupport.unpark(mBlockedProducer);
+    }
+
+    // Wake up blocked threads. write() stores nothing after this.
+    public void close() {
+        mClosed = true;
+        LockSupport.unpark(mBlockedProducer);
+        LockSupport.unpark(mWaitingConsumer);
+    }
+
+    // The largest number of bytes the buffer has held.
+    public int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    // Number of bytes dropped by DROP_OLDEST or DROP_NEWEST.
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    // Number of writes which found the buffer full.
+    public long getOverflowCount() {
+        return mOverflows.get();
+    }
+
+    public void resetStatistics() {
+        mHighWaterMark = available();
+        mDropped.set(0);
+        mOverflows.set(0);
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 2011-12-12 modified by Ukuleletrip (@darkukll)
+ */
+package jp.ksksue.driver.serial;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import android.util.Log;
+
+class FTSerialInput extends InputStream {
+    private static final boolean DEBUG = false;
+    private FTTransport mTransport;
+    private int mMaxPacketSize;
+    // Android's bulkTransfer cannot move more than 16KB at once.
+    static final int MAX_TRANSFER_SIZE = 16384;
+    private int mTransferSize;
+    // last received transfer with the status bytes stripped.
+    // mPacketBuf[mPacketPos..mPacketLen) is payload which has not been
+    // returned to the caller yet.
+    private byte[] mPacketBuf;
+    private int mPacketPos;
+    private int mPacketLen;
+    // payload received by the port's reader. null while reading on demand.
+    private volatile FTRingBuffer mRing;
+    private volatile FTDataDispatcher mDispatcher;
+    private volatile FTCapture mCapture;
+    private final FTModemStatus mStatus = new FTModemStatus();
+    private final FTPortMetrics mMetrics;
+    private static final String TAG = FTSerialInput.class.getSimpleName();
+    
+    public FTSerialInput(FTTransport transport) {
+        this(transport, new FTPortMetrics());
+    }
+
+    public FTSerialInput(FTTransport transport, FTPortMetrics metrics) {
+        mTransport = transport;
+        mMetrics = metrics;
+        mMaxPacketSize = transport.getPacketSize();
+        mTransferSize = mMaxPacketSize;
+        mPacketBuf = new byte[mTransferSize];
+    }
+
+    // Set how many bytes are requested by one bulkTransfer.
+    // it is rounded down to a multiple of max packet size, so several
+    // packets can be received at once.
+    public void setTransferSize(int size) {
+        size = roundTransferSize(size);
+        if (size == mTransferSize) {
+            return;
+        }
+        // keep unread payload.
+        int rest = mPacketLen - mPacketPos;
+        byte[] buf = new byte[Math.max(size, rest)];
+        System.arraycopy(mPacketBuf, mPacketPos, buf, 0, rest);
+        mPacketBuf = buf;
+        mPacketPos = 0;
+        mPacketLen = rest;
+        mTransferSize = size;
+    }
+
+    public int getTransferSize() {
+        return mTransferSize;
+    }
+
+    // Round size down to whole packets, between one packet and MAX_TRANSFER_SIZE.
+    int roundTransferSize(int size) {
+        size = Math.min(size, MAX_TRANSFER_SIZE);
+        return Math.max(size - (size % mMaxPacketSize), mMaxPacketSize);
+    }
+
+    // Start/stop reading from ring, which is filled by a reader,
+    // instead of reading on demand.
+    void startBuffer(FTRingBuffer ring) {
+        mMetrics.resetMarks();
+        mRing = ring;
+    }
+
+    void stopBuffer() {
+        FTRingBuffer ring = mRing;
+        mRing = null;
+        if (ring != null) {
+            ring.close();
+        }
+    }
+
+    FTRingBuffer getBuffer() {
+        return mRing;
+    }
+
+    FTModemStatus getStatus() {
+        return mStatus;
+    }
+
+    FTPortMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    void setCapture(FTCapture capture) {
+        mCapture = capture;
+    }
+
+    int getPacketSize() {
+        return mMaxPacketSize;
+    }
+
+    // Pass fed data to dispatcher. null to stop. the previous dispatcher
+    // is closed, so its listener is not called after this returns.
+    synchronized void setDispatcher(FTDataDispatcher dispatcher) {
+        FTDataDispatcher old = mDispatcher;
+        mDispatcher = dispatcher;
+        if (old != null && old != dispatcher) {
+            old.close();
+        }
+    }
+
+    // Called by the reader with received payload.
+    void feed(byte[] buf, int offset, int length) {
+        FTRingBuffer ring = mRing;
+        if (ring != null) {
+            ring.write(buf, offset, length);
+            mMetrics.arrived(ring.writePosition(), System.nanoTime());
+            FTDataDispatcher dispatcher = mDispatcher;
+            if (dispatcher != null) {
+                dispatcher.dataArrived(ring);
+            }
+        }
+    }
+
+    @Override
+    public int available() {
+        FTRingBuffer ring = mRing;
+        if (ring != null) {
+            return ring.available();
+        }
+        return mPacketLen - mPacketPos;
+    }
+
+    // Return the next byte without removing it, or -1 if no data is received.
+    public int peek() {
+        FTRingBuffer ring = mRing;
+        if (ring != null) {
+            return ring.peek();
+        }
+        if (mPacketPos >= mPacketLen && !fillPacket()) {
+            return -1;
+        }
+        return mPacketBuf[mPacketPos] & 0xff;
+    }
+
+    @Override
+    public int read() throws IOException {
+        FTRingBuffer ring = mRing;
+        if (ring != null) {
+            int c = ring.read();
+            mMetrics.consumed(ring.readPosition());
+            return c;
+        }
+        if (mPacketPos >= mPacketLen && !fillPacket()) {
+            return -1;
+        }
+        return mPacketBuf[mPacketPos++] & 0xff;
+    }
+    
+    @Override
+    public int read (byte[] buffer, int offset, int length) {
+        FTRingBuffer ring = mRing;
+        if (ring != null) {
+            int len = ring.read(buffer, offset, length);
+            mMetrics.consumed(ring.readPosition());
+            return len;
+        }
+        int readLen = 0;
+
+        while (readLen < length) {
+            if (mPacketPos >= mPacketLen && !fillPacket()) {
+                break;
+            }
+            int len = Math.min(length - readLen, mPacketLen - mPacketPos);
+            System.arraycopy(mPacketBuf, mPacketPos, buffer, offset + readLen, len);
+            mPacketPos += len;
+            readLen += len;
+        }
+        return readLen;
+    }
+
+    // Read into dst up to its remaining bytes. the payload is copied once,
+    // from the received transfer (or the receive buffer) to dst.
+    public int read(ByteBuffer dst) {
+        FTRingBuffer ring = mRing;
+        if (ring != null) {
+            int len = ring.read(dst);
+            mMetrics.consumed(ring.readPosition());
+            return len;
+        }
+        int readLen = 0;
+        while (dst.hasRemaining()) {
+            if (mPacketPos >= mPacketLen && !fillPacket()) {
+                break;
+            }
+            int len = Math.min(dst.remaining(), mPacketLen - mPacketPos);
+            dst.put(mPacketBuf, mPacketPos, len);
+            mPacketPos += len;
+            readLen += len;
+        }
+        return readLen;
+    }
+
+    // Receive packets into mPacketBuf.
+    // the rest of the payload is kept for the next read.
+    private boolean fillPacket() {
+        int payloadLen = receive(mPacketBuf, mTransferSize, 0);
+        if (payloadLen <= 0) {
+            mPacketPos = mPacketLen = 0;
+            return false;
+        }
+        mPacketPos = 0;
+        mPacketLen = payloadLen;
+        return true;
+    }
+
+    // Receive up to size bytes of packets into buf and return the length of
+    // the payload in buf, or -1 on error.
+    // we always request whole packets, since we will get error (-1) if we call
+    // bulkTransfer with a length less than the data in serial buffer.
+    int receive(byte[] buf, int size, int timeout) {
+        long start = System.nanoTime();
+        int len = mTransport.bulkIn(buf, size, timeout);
+        mMetrics.bulkInLatency().record(System.nanoTime() - start);
+        if (len < 0) {
+            mMetrics.mErrorsIn.incrementAndGet();
+            return -1;
+        }
+        int payloadLen = decode(buf, len);
+        if (DEBUG) Log.d(TAG, "read " + len + " bytes, payload " + payloadLen + " bytes");
+        return payloadLen;
+    }
+
+    // Remove status bytes from len bytes of packets in buf and return the
+    // length of the payload left in buf. the status is kept in mStatus.
+    int decode(byte[] buf, int len) {
+        FTCapture capture = mCapture;
+        if (capture != null) {
+            capture.record(FTCapture.RX, buf, 0, len);
+        }
+        int payloadLen = stripStatusBytes(buf, len, mMaxPacketSize, mStatus);
+        mMetrics.received(len, payloadLen, mMaxPacketSize);
+        return payloadLen;
+    }
+
+    // Every packet starts with 2 status bytes, they should be skipped.
+    // This removes them in place from buf[0..len) which holds packets of
+    // packetSize bytes (the last one may be shorter, and a packet may have
+    // no payload at all), and returns the length of the payload left in buf.
+    // the status bytes are passed to status if it is not null.
+    static int stripStatusBytes(byte[] buf, int len, int packetSize, FTModemStatus status) {
+        int dst = 0;
+        for (int src = 0; src < len; src += packetSize) {
+            int packetLen = Math.min(packetSize, len - src);
+            if (status != null && packetLen >= 2) {
+                status.update(buf[src] & 0xff, buf[src + 1] & 0xff);
+            }
+            int payloadLen = packetLen - 2;
+            if (payloadLen > 0) {
+                System.arraycopy(buf, src + 2, buf, dst, payloadLen);
+                dst += payloadLen;
+            }
+        }
+        return dst;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * 2011-12-12 modified by Ukuleletrip (@darkukll)
+ */
+package jp.ksksue.driver.serial;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.util.Log;
+
+class FTSerialOutput extends OutputStream {
+    private static final boolean DEBUG = false;
+    private FTTransport mTransport;
+    private int mMaxPacketSize;
+    private int mMaxTransferSize;
+    private byte[] mWriteBuf;
+    // copy of direct ByteBuffers
+    private byte[] mDirectBuf;
+    // small writes gathered to be sent at once. null when not gathering.
+    private byte[] mPending;
+    private int mPendingLen;
+    private int mLingerMillis;
+    private boolean mLingerScheduled;
+    private volatile FTCapture mCapture;
+    private final FTPortMetrics mMetrics;
+    // held while writing. a lock instead of the monitor so that close() can
+    // give up when a write is stuck in bulkTransfer.
+    private final ReentrantLock mLock = new ReentrantLock();
+    private volatile boolean mClosed;
+    private volatile int mWriteTimeout = DEFAULT_WRITE_TIMEOUT;
+    // ms a bulkTransfer may wait for the device to take the data
+    static final int DEFAULT_WRITE_TIMEOUT = 5000;
+    // times to retry a transfer which sent nothing
+    private static final int MAX_RETRY = 3;
+    private static final String TAG = FTSerialOutput.class.getSimpleName();
+    
+    public FTSerialOutput(FTTransport transport) {
+        this(transport, new FTPortMetrics());
+    }
+
+    public FTSerialOutput(FTTransport transport, FTPortMetrics metrics) {
+        mTransport = transport;
+        mMetrics = metrics;
+        mMaxPacketSize = transport.getPacketSize();
+        mMaxTransferSize = (mMaxPacketSize > 64)? FTSerialInput.MAX_TRANSFER_SIZE : 4096;
+        mWriteBuf = new byte[mMaxPacketSize];
+    }
+
+    // Set the largest number of bytes sent by one bulkTransfer (up to 16KB).
+    public void setMaxTransferSize(int size) {
+        size = Math.min(size, FTSerialInput.MAX_TRANSFER_SIZE);
+        mLock.lock();
+        try {
+            mMaxTransferSize = Math.max(size - (size % mMaxPacketSize), mMaxPacketSize);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int getMaxTransferSize() {
+        return mMaxTransferSize;
+    }
+
+    void setCapture(FTCapture capture) {
+        mCapture = capture;
+    }
+
+    // Gather small writes and send them together, like Nagle's algorithm.
+    // gathered bytes are sent when threshold bytes are gathered, flush() is
+    // called, or lingerMillis has passed since the first of them was written
+    // (lingerMillis 0 waits for threshold or flush()). threshold 0 stops gathering.
+    public void setCoalescing(int threshold, int lingerMillis) throws IOException {
+        mLock.lock();
+        try {
+            flush();
+            mPending = (threshold > 0)? new byte[threshold] : null;
+            mLingerMillis = lingerMillis;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // Set ms a bulkTransfer may wait for the device. a write which times
+    // out fails with an IOException.
+    public void setWriteTimeout(int timeout) {
+        mWriteTimeout = timeout;
+    }
+
+    public int getWriteTimeout() {
+        return mWriteTimeout;
+    }
+
+    @Override
+    public void write(int arg0) throws IOException {
+        mLock.lock();
+        try {
+            writeByte(arg0);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void writeByte(int arg0) throws IOException {
+        checkOpen();
+        if (mPending != null) {
+            mPending[mPendingLen++] = (byte)arg0;
+            if (mPendingLen == mPending.length) {
+                flush();
+            } else if (mPendingLen == 1) {
+                scheduleLinger();
+            }
+            return;
+        }
+        mWriteBuf[0] = (byte)arg0;
+        send(mWriteBuf, 0, 1);
+    }
+    
+    @Override
+    public void write (byte[] buffer, int offset, int count) throws IOException {
+        mLock.lock();
+        try {
+            writeBytes(buffer, offset, count);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void writeBytes(byte[] buffer, int offset, int count) throws IOException {
+        checkOpen();
+        if (mPending == null) {
+            send(buffer, offset, count);
+            return;
+        }
+        if (mPendingLen + count < mPending.length) {
+            // keep gathering
+            System.arraycopy(buffer, offset, mPending, mPendingLen, count);
+            if (mPendingLen == 0) {
+                scheduleLinger();
+            }
+            mPendingLen += count;
+            return;
+        }
+        if (mPendingLen > 0) {
+            int len = mPending.length - mPendingLen;
+            System.arraycopy(buffer, offset, mPending, mPendingLen, len);
+            mPendingLen += len;
+            flush();
+            offset += len;
+            count -= len;
+        }
+        // send whole thresholds directly and gather the rest.
+        int rest = count % mPending.length;
+        send(buffer, offset, count - rest);
+        if (rest > 0) {
+            System.arraycopy(buffer, offset + count - rest, mPending, 0, rest);
+            mPendingLen = rest;
+            scheduleLinger();
+        }
+    }
+
+    // Write remaining bytes of src. a heap buffer is sent from its array,
+    // a direct buffer is copied once to a transfer buffer.
+    public int write(ByteBuffer src) throws IOException {
+        int count = src.remaining();
+        mLock.lock();
+        try {
+            if (src.hasArray()) {
+                writeBytes(src.array(), src.arrayOffset() + src.position(), count);
+                src.position(src.limit());
+                return count;
+            }
+            if (mDirectBuf == null || mDirectBuf.length < Math.min(count, mMaxTransferSize)) {
+                mDirectBuf = new byte[mMaxTransferSize];
+            }
+            while (src.hasRemaining()) {
+                int len = Math.min(src.remaining(), mDirectBuf.length);
+                src.get(mDirectBuf, 0, len);
+                writeBytes(mDirectBuf, 0, len);
+            }
+        } finally {
+            mLock.unlock();
+        }
+        return count;
+    }
+
+    // Send gathered bytes now.
+    @Override
+    public void flush() throws IOException {
+        mLock.lock();
+        try {
+            if (mPendingLen > 0) {
+                int len = mPendingLen;
+                mPendingLen = 0;
+                send(mPending, 0, len);
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // Allow writes again after close().
+    void open() {
+        mClosed = false;
+    }
+
+    // Send the gathered bytes unless a write is in progress, and fail the
+    // following writes. never waits for a write which is stuck; it fails
+    // after its current transfer.
+    @Override
+    public void close() {
+        if (!mLock.tryLock()) {
+            mClosed = true;
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            Log.e(TAG, "failed to send gathered bytes", e);
+        } finally {
+            mClosed = true;
+            mPendingLen = 0;
+            mLock.unlock();
+        }
+    }
+
+    private void scheduleLinger() {
+        if (mLingerMillis <= 0 || mLingerScheduled) {
+            return;
+        }
+        mLingerScheduled = true;
+        FTTimer.schedule(mLingerFlush, mLingerMillis);
+    }
+
+    private final Runnable mLingerFlush = new Runnable() {
+        @Override
+        public void run() {
+            mLock.lock();
+            try {
+                mLingerScheduled = false;
+                flush();
+            } catch (IOException e) {
+                Log.e(TAG, "failed to send gathered bytes", e);
+            } finally {
+                mLock.unlock();
+            }
+        }
+    };
+
+    private void checkOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("port is closed");
+        }
+    }
+
+    // Send count bytes of buffer in transfers of up to mMaxTransferSize.
+    // called with mLock held.
+    private void send(byte[] buffer, int offset, int count) throws IOException {
+        int writtenLen = 0;
+        int retry = 0;
+        while (writtenLen < count) {
+            checkOpen();
+            int pos = offset + writtenLen;
+            int writeLen = Math.min(count - writtenLen, mMaxTransferSize);
+            long start = System.nanoTime();
+            // -1 on timeout, e.g. the device stopped taking data
+            int len = mTransport.bulkOut(buffer, pos, writeLen, mWriteTimeout);
+            mMetrics.bulkOutLatency().record(System.nanoTime() - start);
+            mMetrics.sent(writeLen, len, mMaxPacketSize);
+            if (DEBUG) Log.d(TAG, "write " + len + " of " + writeLen + " bytes");
+            if (len < 0) {
+                throw new IOException("bulkTransfer returned " + len);
+            }
+            // a short write sends the rest again.
+            if (len == 0 && ++retry > MAX_RETRY) {
+                throw new IOException("bulkTransfer sent no data");
+            } else if (len > 0) {
+                retry = 0;
+                FTCapture capture = mCapture;
+                if (capture != null) {
+                    capture.record(FTCapture.TX, buffer, pos, len);
+                }
+            }
+            writtenLen += len;
+        }
+    }
+}
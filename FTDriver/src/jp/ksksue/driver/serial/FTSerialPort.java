@@ -10,153 +10,228 @@ package jp.ksksue.driver.serial;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
+import android.os.Handler;
 import android.util.Log;
 
-class FTSerialInput extends InputStream {
-    private UsbDeviceConnection mDeviceConnection;
-    private UsbEndpoint mIn;
-    private int mMaxPacketSize;
-    private static final String TAG = FTSerialInput.class.getSimpleName();
-    
-    public FTSerialInput(UsbDeviceConnection conn, UsbEndpoint ep) {
-        mDeviceConnection = conn;
-        mIn = ep;
-        mMaxPacketSize = ep.getMaxPacketSize();
-        if (mMaxPacketSize == 0) {
-            mMaxPacketSize = 64;
-        }
-    }
-
-    @Override
-    public int read() throws IOException {
-        byte[] c = new byte[1];
-        if (read(c, 0, 1) == 1) {
-            return (int)c[0];
-        }
-        return -1;
-    }
-    
-    @Override
-    public int read (byte[] buffer, int offset, int length) {
-        byte[] rbuf = new byte[mMaxPacketSize];
-        int readLen = 0;
+public class FTSerialPort implements ByteChannel, ScatteringByteChannel, GatheringByteChannel {
+    // flow control
+    public static final int FLOW_NONE = 0x0000;
+    public static final int FLOW_RTS_CTS = 0x0100;
+    public static final int FLOW_DTR_DSR = 0x0200;
+    public static final int FLOW_XON_XOFF = 0x0400;
+    public static final int XON = 0x11;
+    public static final int XOFF = 0x13;
 
-        while (readLen < length) {
-            // we will get error (-1) if we call bulkTransfer with readLen 
-            // more than maxPacketSize and data in serial buffer more than it. 
-            int len = mDeviceConnection.bulkTransfer(mIn, rbuf,
-                    Math.min(mMaxPacketSize, length-readLen+2), 0);
-            if (len <= 2) {
-                Log.d(TAG, "read received " + len + " bytes.");
-                break;
-            }
-            // 1st and 2nd bytes are status bytes, they should be skipped.
-            // FIXME shift rbuf's pointer 2 to 0. (I don't know how to do.)
-            String dump = String.format("%02X %02X ", rbuf[0], rbuf[1]);
-            for (int i = 0; i < len-2; ++i) {
-                buffer[offset + readLen + i] = rbuf[i + 2];
-                dump += String.format("%02X ", rbuf[i+2]);
-            }
-            Log.d(TAG, "read " + len + " bytes:" + dump);
-            readLen += (len - 2);
-        }
-        return readLen;
-    }
-}
-
-class FTSerialOutput extends OutputStream {
-    private UsbDeviceConnection mDeviceConnection;
-    private UsbEndpoint mOut;
-    private int mMaxPacketSize;
-    private static final String TAG = FTSerialInput.class.getSimpleName();
-    
-    public FTSerialOutput(UsbDeviceConnection conn, UsbEndpoint ep) {
-        mDeviceConnection = conn;
-        mOut = ep;
-        mMaxPacketSize = ep.getMaxPacketSize();
-        if (mMaxPacketSize == 0) {
-            mMaxPacketSize = 64;
-        }
-    }
-
-    @Override
-    public void write(int arg0) throws IOException {
-        byte[] c = new byte[1];
-        c[0] = (byte)arg0;
-        write(c, 0, 1);
-    }
-    
-    @Override
-    public void write (byte[] buffer, int offset, int count) throws IOException {
-        int writtenLen = 0;
-        byte[] writeBuffer = new byte[mMaxPacketSize];
-        while (writtenLen < count) {
-            int writeLen = Math.min(count - writtenLen, writeBuffer.length);
-            String dump = "";
-            for (int i=0; i < writeLen; i++) {
-                writeBuffer[i] = buffer[offset + writtenLen + i];
-                dump += String.format("%02X ", writeBuffer[i]);
-            }
-            Log.d(TAG, "write: " + dump);
-            int len;
-            if ((len = mDeviceConnection.bulkTransfer(mOut, writeBuffer, writeLen, 0)) < 0) {
-                throw new IOException("bulkTransfer returned " + len);
-            }
-            writtenLen += len;
-        }
-    }
-}
-
-public class FTSerialPort {
     private static final String TAG = FTSerialPort.class.getSimpleName();
+    // USB connection and interface, null if the port is on another transport
     private UsbDeviceConnection mDeviceConnection;
     private UsbInterface mInterface;
+    private FTTransport mTransport;
     private FTSerialInput mInputStream;
     private FTSerialOutput mOutputStream;
     private int mInterfaceNo;
-    private boolean mIsOpened;
+    private FTChipType mChipType;
+    private FTReaderThread mReaderThread;
+    // mReaderThread was started by setDataListener
+    private boolean mListenerReader;
+    private volatile FTErrorListener mErrorListener;
+    // fed by FTReadEngine
+    private boolean mExternalReader;
+    // device of the port, null if it was not opened by FTDriver
+    private FTDevice mDevice;
+    // loop which feeds the port
+    private volatile FTEventLoop mEventLoop;
+    private FTAsyncWriter mWriter;
+    private int mWriteQueueDepth = DEFAULT_WRITE_QUEUE_DEPTH;
+    private static final int DEFAULT_WRITE_QUEUE_DEPTH = 16;
+    // receive buffer of the reader started by setDataListener
+    private static final int DEFAULT_BUFFER_SIZE = 65536;
+    private int mBatchBytes;
+    private int mBatchMillis;
+    // chip settings applied at open. -1 leaves the chip's default.
+    private int mLatencyTimer = -1;
+    private int mEventChar = -1;
+    private int mErrorChar = -1;
+    private double mBaudrateTolerance = -1;
+    private FTBaudRate mBaudRate;
+    private int mFlowControl = FLOW_NONE;
+    private int mXon = XON;
+    private int mXoff = XOFF;
+    private volatile boolean mIsOpened;
     private String mName;
     
     public FTSerialPort(UsbDeviceConnection conn, String name, UsbInterface intf, int intfNo) {
+        this(conn, name, intf, intfNo, FTChipType.UNKNOWN);
+    }
+    
+    public FTSerialPort(UsbDeviceConnection conn, String name, UsbInterface intf, int intfNo,
+            FTChipType chipType) {
+        this(createTransport(conn, intf, chipType), name, intfNo, chipType);
         mDeviceConnection = conn;
         mInterface = intf;
+    }
+    
+    // Port on transport, e.g. FTSimulator to run without USB.
+    // intfNo is the interface number sent in control requests.
+    public FTSerialPort(FTTransport transport, String name, int intfNo, FTChipType chipType) {
+        mTransport = transport;
         mInterfaceNo = intfNo;
+        mChipType = chipType;
         mIsOpened = false;
         mName = (intfNo == 0)? name : String.format("%s:%d", name, intfNo); 
-        if (mInterface.getEndpointCount() < 2) {
+        FTPortMetrics metrics = new FTPortMetrics();
+        mInputStream = new FTSerialInput(transport, metrics);
+        mOutputStream = new FTSerialOutput(transport, metrics);
+        mOutputStream.setMaxTransferSize(chipType.getMaxTransferSize());
+    }
+    
+    private static FTTransport createTransport(UsbDeviceConnection conn, UsbInterface intf,
+            FTChipType chipType) {
+        if (intf.getEndpointCount() < 2) {
             throw new IllegalArgumentException(
-                    "interface " + mInterface.toString() + " does not have 2 endpoints");
+                    "interface " + intf.toString() + " does not have 2 endpoints");
         }
-        mInputStream = new FTSerialInput(mDeviceConnection, mInterface.getEndpoint(0));
-        mOutputStream = new FTSerialOutput(mDeviceConnection, mInterface.getEndpoint(1)); 
+        return new FTUsbTransport(conn, intf, chipType.getMaxPacketSize());
     }
     
     public void open(int baudrate) {
         if (mIsOpened) {
             return;
         }
-        if (!mDeviceConnection.claimInterface(mInterface, false)) {
+        if (mBaudrateTolerance >= 0 && baudrate > mChipType.getMaxBaudrate()) {
+            throw new IllegalArgumentException("Cannot set baud rate : " + baudrate + ", because too high.");
+        }
+        FTBaudRate baud = calcFTDIBaudrate(baudrate);
+        if (mBaudrateTolerance >= 0 && Math.abs(baud.getError()) > mBaudrateTolerance) {
+            throw new IllegalArgumentException("Cannot set baud rate : " + baud);
+        }
+        if (!mTransport.claim()) {
             throw new IllegalArgumentException(
-                    "interface " + mInterface.toString() + " failed to claim");
+                    "interface of " + mName + " failed to claim");
         }
         mIsOpened = true;
-        initFTDIChip(baudrate, mInterfaceNo);
+        mOutputStream.open();
+        mBaudRate = baud;
+        initFTDIChip(baud, mInterfaceNo);
     }
     
+    // Open with flow control, one of FLOW_NONE, FLOW_RTS_CTS, FLOW_DTR_DSR
+    // and FLOW_XON_XOFF.
+    public void open(int baudrate, int flowControl) {
+        setFlowControl(flowControl);
+        open(baudrate);
+    }
+    
+    // Open with the latency settings of preset,
+    // such as FTLatencyPreset.LOW_LATENCY or THROUGHPUT.
+    public void open(int baudrate, FTLatencyPreset preset) {
+        setLatencyPreset(preset);
+        open(baudrate);
+    }
+    
+    // Close the port. never waits for a write stuck in a stalled device:
+    // queued writeAsync writes are cancelled first, and gathered bytes are
+    // sent only if no write is in progress.
+    @Override
     public void close() {
-        if (mIsOpened) {
-            mDeviceConnection.releaseInterface(mInterface);
+        boolean opened;
+        synchronized (this) {
+            // writeAsync fails from here on
+            opened = mIsOpened;
             mIsOpened = false;
+            if (mWriter != null) {
+                mWriter.close();
+                mWriter = null;
+            }
+        }
+        mOutputStream.close();
+        mInputStream.setDispatcher(null);
+        stopReader();
+        stopReadEngine();
+        stopExternalReader();
+        if (opened) {
+            mTransport.release();
         }
     }
     
+    @Override
+    public boolean isOpen() {
+        return mIsOpened;
+    }
+    
+    // Read received bytes into dst without waiting more than one USB read.
+    // returns the number of bytes read, may be 0.
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!mIsOpened) {
+            throw new ClosedChannelException();
+        }
+        return mInputStream.read(dst);
+    }
+    
+    @Override
+    public long read(ByteBuffer[] dsts) throws IOException {
+        return read(dsts, 0, dsts.length);
+    }
+    
+    // Scatter received bytes into dsts. stops at the first buffer which is
+    // not filled up.
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long readLen = 0;
+        for (int i = offset; i < offset + length; i++) {
+            ByteBuffer dst = dsts[i];
+            readLen += read(dst);
+            if (dst.hasRemaining()) {
+                break;
+            }
+        }
+        return readLen;
+    }
+    
+    // Write all remaining bytes of src.
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!mIsOpened) {
+            throw new ClosedChannelException();
+        }
+        return mOutputStream.write(src);
+    }
+    
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+    
+    // Gather srcs. with setWriteCoalescing, small buffers are sent together.
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long writtenLen = 0;
+        for (int i = offset; i < offset + length; i++) {
+            writtenLen += write(srcs[i]);
+        }
+        return writtenLen;
+    }
+    
     public String getPortName() {
         return mName;
     }
     
+    public FTChipType getChipType() {
+        return mChipType;
+    }
+    
     public InputStream getInputStream() {
         return mInputStream;
     }
@@ -165,46 +240,384 @@ public class FTSerialPort {
         return mOutputStream;
     }
     
+    // Set bytes requested by one USB read (up to 16KB).
+    // Large sizes let a high baud rate stream be received with fewer transfers.
+    public void setReadTransferSize(int size) {
+        mInputStream.setTransferSize(size);
+    }
+    
+    // Start a reader thread which receives data into a buffer of bufferSize
+    // bytes. then the input stream, available() and peek() are served from
+    // the buffer without waiting. overflowPolicy is one of
+    // FTRingBuffer.DROP_OLDEST, DROP_NEWEST and BLOCK.
+    public synchronized void startReader(int bufferSize, int overflowPolicy) {
+        if (!mIsOpened || mReaderThread != null || mExternalReader) {
+            return;
+        }
+        mInputStream.startBuffer(new FTRingBuffer(bufferSize, overflowPolicy));
+        mReaderThread = new FTReaderThread(this);
+        mReaderThread.start();
+    }
+    
+    public synchronized void stopReader() {
+        if (mReaderThread != null) {
+            mInputStream.stopBuffer();
+            mReaderThread.stopReading();
+            mReaderThread = null;
+        }
+        mListenerReader = false;
+    }
+    
+    // Start receiving with requestCount UsbRequests of transferSize bytes
+    // kept queued on the IN endpoint. received data is buffered up to
+    // bufferSize bytes like startReader().
+    // Since UsbDeviceConnection.requestWait returns requests of any
+    // endpoint, the port is added to the FTEventLoop of its FTDevice, which
+    // serves all ports of the connection. A port created without FTDriver
+    // gets a loop of its own; then it must be the only one on its connection.
+    // Needs a USB port; use startReader() on other transports.
+    public void startReadEngine(int requestCount, int transferSize, int bufferSize) {
+        if (mDeviceConnection == null) {
+            Log.e(TAG, "read engine needs a USB port");
+            return;
+        }
+        FTEventLoop loop = (mDevice != null)? mDevice.getEventLoop() : new FTEventLoop(mDeviceConnection);
+        if (loop.addPort(this, requestCount, transferSize, bufferSize)) {
+            loop.start();
+        } else if (mDevice == null) {
+            loop.stop();
+        }
+    }
+    
+    // Stop receiving by the read engine or the FTEventLoop of the port.
+    public void stopReadEngine() {
+        FTEventLoop loop = mEventLoop;
+        if (loop != null) {
+            loop.removePort(this);
+        }
+    }
+    
+    // Prepare to be fed by a reader out of this port (FTReadEngine).
+    synchronized boolean startExternalReader(int bufferSize, int overflowPolicy) {
+        if (!mIsOpened || mReaderThread != null || mExternalReader) {
+            return false;
+        }
+        mExternalReader = true;
+        mInputStream.startBuffer(new FTRingBuffer(bufferSize, overflowPolicy));
+        return true;
+    }
+    
+    synchronized void stopExternalReader() {
+        if (mExternalReader) {
+            mInputStream.stopBuffer();
+            mExternalReader = false;
+        }
+    }
+    
+    UsbEndpoint getInEndpoint() {
+        return mInterface.getEndpoint(0);
+    }
+    
+    FTSerialInput getInput() {
+        return mInputStream;
+    }
+    
+    FTTransport getTransport() {
+        return mTransport;
+    }
+    
+    void setDevice(FTDevice device) {
+        mDevice = device;
+    }
+    
+    void setEventLoop(FTEventLoop loop) {
+        mEventLoop = loop;
+    }
+    
+    // Gather small writes into transfers of up to threshold bytes.
+    // they are sent by flush(), when threshold bytes are gathered or
+    // lingerMillis after the first gathered byte. threshold 0 turns it off.
+    public void setWriteCoalescing(int threshold, int lingerMillis) throws IOException {
+        mOutputStream.setCoalescing(threshold, lingerMillis);
+    }
+    
+    // Queue count bytes of buffer to the port's writer thread and return at once.
+    // buffer must not be changed until the write completes. At most depth
+    // writes, the one being sent included, are pending; a write beyond that,
+    // or on a port which is not open, is rejected: the future fails with an
+    // IOException. queued writes are cancelled by close().
+    // listener (may be null) is called on the writer thread when the write is
+    // sent or fails, on the calling thread when it is rejected, and on the
+    // thread calling close() when it is cancelled.
+    public synchronized Future<Integer> writeAsync(byte[] buffer, int offset, int count,
+            FTWriteListener listener) {
+        if (!mIsOpened) {
+            return FTAsyncWriter.failed("port is closed", listener);
+        }
+        if (mWriter == null) {
+            mWriter = new FTAsyncWriter(mOutputStream, mWriteQueueDepth);
+        }
+        return mWriter.write(buffer, offset, count, listener);
+    }
+    
+    // Set how many writes writeAsync can queue. takes effect from the next writer.
+    public synchronized void setWriteQueueDepth(int depth) {
+        mWriteQueueDepth = depth;
+    }
+    
+    // Number of writes queued by writeAsync and not being sent yet.
+    public synchronized int getQueuedWriteCount() {
+        return (mWriter == null)? 0 : mWriter.getQueuedCount();
+    }
+    
+    // true while writeAsync would reject a write.
+    public synchronized boolean isWriteQueueFull() {
+        return mWriter != null && mWriter.isQueueFull();
+    }
+    
+    // Set ms a USB write may wait for the device to take the data, 5000 by
+    // default. a write which times out fails with an IOException.
+    public void setWriteTimeout(int timeout) {
+        mOutputStream.setWriteTimeout(timeout);
+    }
+    
+    // Set the largest number of bytes sent by one USB write (up to 16KB).
+    // Large writes are sent in transfers of this size.
+    public void setWriteTransferSize(int size) {
+        mOutputStream.setMaxTransferSize(size);
+    }
+    
+    // Send bytes gathered by setWriteCoalescing now.
+    public void flush() throws IOException {
+        mOutputStream.flush();
+    }
+    
+    // Buffer filled by the reader, or null if no reader is running.
+    // this gives its high water mark and dropped bytes.
+    public FTRingBuffer getReceiveBuffer() {
+        return mInputStream.getBuffer();
+    }
+    
+    // Number of received bytes which can be read without waiting.
+    public int available() {
+        return mInputStream.available();
+    }
+    
+    // Modem status (CTS, DSR, RI, DCD) and line error counters
+    // reported by the chip.
+    public FTModemStatus getModemStatus() {
+        return mInputStream.getStatus();
+    }
+    
+    // Listen to modem status changes and line errors.
+    // listener is called on the thread receiving data.
+    public void setStatusListener(FTStatusListener listener) {
+        mInputStream.getStatus().setListener(listener);
+    }
+    
+    // Listen to the failure of the reader thread, e.g. when the device is
+    // detached. null removes the listener.
+    public void setErrorListener(FTErrorListener listener) {
+        mErrorListener = listener;
+    }
+    
+    // Called by the reader thread when it gave up.
+    void readerFailed(int errors) {
+        FTErrorListener listener = mErrorListener;
+        if (listener != null) {
+            listener.onReadError(this, errors);
+        }
+    }
+    
+    // Call listener as soon as data is received, on the reader thread.
+    // If no reader is running, one is started by startReader(), so call
+    // this after open(), and after startReadEngine() to use the read engine.
+    // The receive buffer is drained by the listener; don't read the port
+    // while a listener is set. null removes the listener and stops the
+    // reader it started; the listener is not called after this returns.
+    public void setDataListener(FTDataListener listener) {
+        setDataListener(listener, (Executor) null);
+    }
+    
+    // Call listener on executor.
+    public synchronized void setDataListener(FTDataListener listener, Executor executor) {
+        if (listener == null) {
+            mInputStream.setDispatcher(null);
+            if (mListenerReader) {
+                stopReader();
+            }
+            return;
+        }
+        // set before the reader starts, so the first data reaches the listener
+        mInputStream.setDispatcher(new FTDataDispatcher(listener, executor, mBatchBytes, mBatchMillis,
+                mInputStream.getMetrics()));
+        if (mInputStream.getBuffer() == null) {
+            startReader(DEFAULT_BUFFER_SIZE, FTRingBuffer.DROP_OLDEST);
+            mListenerReader = (mReaderThread != null);
+        }
+    }
+    
+    // Call listener on the thread of handler, e.g. the UI thread.
+    public void setDataListener(FTDataListener listener, final Handler handler) {
+        setDataListener(listener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        });
+    }
+    
+    // Batch data for the listener: it is called when minBytes bytes are
+    // buffered, or windowMillis after the first byte of a batch arrived.
+    // 0 disables each condition; both 0 (default) calls it for every transfer.
+    // Takes effect from the next setDataListener().
+    public void setDataBatching(int minBytes, int windowMillis) {
+        mBatchBytes = minBytes;
+        mBatchMillis = windowMillis;
+    }
+    
+    // Transfer counters and latency histograms of this port
+    public FTPortMetrics getMetrics() {
+        return mInputStream.getMetrics();
+    }
+    
+    // Record received and sent transfers to capture. null stops recording;
+    // the capture is not closed.
+    public void setCapture(FTCapture capture) {
+        if (capture != null) {
+            capture.setPacketSize(mInputStream.getPacketSize());
+        }
+        mInputStream.setCapture(capture);
+        mOutputStream.setCapture(capture);
+    }
+    
+    // Return the next received byte without removing it, or -1.
+    public int peek() {
+        return mInputStream.peek();
+    }
+    
+    // Set flow control, one of FLOW_NONE, FLOW_RTS_CTS, FLOW_DTR_DSR and
+    // FLOW_XON_XOFF. With flow control the chip stops the device before its
+    // receive FIFO overflows, and stops sending while the device asks it to.
+    // Takes effect now if the port is opened, or when it is opened.
+    public void setFlowControl(int flowControl) {
+        setFlowControl(flowControl, XON, XOFF);
+    }
+    
+    // Set flow control with XON/XOFF characters used by FLOW_XON_XOFF.
+    public void setFlowControl(int flowControl, int xon, int xoff) {
+        mFlowControl = flowControl;
+        mXon = xon;
+        mXoff = xoff;
+        if (mIsOpened) {
+            sendFlowControl(mInterfaceNo);
+        }
+    }
+    
+    public int getFlowControl() {
+        return mFlowControl;
+    }
+    
+    // Set DTR line. (not available while FLOW_DTR_DSR is used)
+    public void setDtr(boolean on) {
+        mTransport.controlTransfer(0x40, 0x01, on? 0x0101 : 0x0100, mInterfaceNo, null, 0, 0);   //set modem ctrl
+    }
+    
+    // Set RTS line. (not available while FLOW_RTS_CTS is used)
+    public void setRts(boolean on) {
+        mTransport.controlTransfer(0x40, 0x01, on? 0x0202 : 0x0200, mInterfaceNo, null, 0, 0);   //set modem ctrl
+    }
+    
+    private void sendFlowControl(int intfNo) {
+        int value = (mFlowControl == FLOW_XON_XOFF)? ((mXoff & 0xff) << 8) | (mXon & 0xff) : 0;
+        mTransport.controlTransfer(0x40, 0x02, value, mFlowControl | intfNo, null, 0, 0);   //set flow control
+    }
+    
+    // Set the chip's latency timer (1-255 ms). the chip sends data it has
+    // received when the timer expires, even if a packet is not full.
+    // Takes effect now if the port is opened, or when it is opened.
+    public void setLatencyTimer(int millis) {
+        mLatencyTimer = Math.max(1, Math.min(millis, 255));
+        if (mIsOpened) {
+            mTransport.controlTransfer(0x40, 0x09, mLatencyTimer, mInterfaceNo, null, 0, 0);   //set latency timer
+        }
+    }
+    
+    public int getLatencyTimer() {
+        return mLatencyTimer;
+    }
+    
+    // Set the event character. when it is received, the chip sends its
+    // buffer at once without waiting for the latency timer. -1 disables it.
+    public void setEventChar(int c) {
+        mEventChar = c;
+        if (mIsOpened) {
+            mTransport.controlTransfer(0x40, 0x06, charValue(c), mInterfaceNo, null, 0, 0);    //set event char
+        }
+    }
+    
+    // Set the character the chip inserts in place of a byte received with
+    // a parity or framing error. -1 disables it.
+    public void setErrorChar(int c) {
+        mErrorChar = c;
+        if (mIsOpened) {
+            mTransport.controlTransfer(0x40, 0x07, charValue(c), mInterfaceNo, null, 0, 0);    //set error char
+        }
+    }
+    
+    // Apply latency timer, event character and read transfer size of preset.
+    public void setLatencyPreset(FTLatencyPreset preset) {
+        setLatencyTimer(preset.getLatencyTimer());
+        setEventChar(preset.getEventChar());
+        mInputStream.setTransferSize(preset.getReadTransferSize());
+    }
+    
+    // bit 8 enables the character
+    private static int charValue(int c) {
+        return (c < 0)? 0 : (0x100 | (c & 0xff));
+    }
+    
+    // open() fails if the real baud rate is more than percent away from
+    // the requested one. negative value (default) accepts any error.
+    public void setBaudrateTolerance(double percent) {
+        mBaudrateTolerance = percent;
+    }
+    
+    // Baud rate set by open(): divisor, real baud rate and its error
+    public FTBaudRate getBaudRate() {
+        return mBaudRate;
+    }
+    
     // Initial control transfer
-    private void initFTDIChip(int baudrate, int intfNo) {
-        int baud = calcFTDIBaudrate(baudrate);
-        mDeviceConnection.controlTransfer(0x40, 0, 0, intfNo, null, 0, 0);           //reset
-        mDeviceConnection.controlTransfer(0x40, 0, 1, intfNo, null, 0, 0);           //clear Rx
-        mDeviceConnection.controlTransfer(0x40, 0, 2, intfNo, null, 0, 0);           //clear Tx
-        mDeviceConnection.controlTransfer(0x40, 0x02, 0x0000, intfNo, null, 0, 0);   //flow control none
-        mDeviceConnection.controlTransfer(0x40, 0x03, baud, intfNo, null, 0, 0);     //set baudrate
-        mDeviceConnection.controlTransfer(0x40, 0x04, 0x0008, intfNo, null, 0, 0);   //data bit 8, parity none, stop bit 1, tx off
-    }
-    
-    /* Calculate a Divisor at 48MHz
-     * 9600 : 0x4138
-     * 11400    : 0xc107
-     * 19200    : 0x809c
-     * 38400    : 0xc04e
-     * 57600    : 0x0034
-     * 115200   : 0x001a
-     * 230400   : 0x000d
-     */
-    private static int calcFTDIBaudrate(int baud) {
-        int divisor;
-        if(baud <= 3000000) {
-            divisor = calcFT232bmBaudBaseToDiv(baud, 48000000);
-        } else {
+    private void initFTDIChip(FTBaudRate baud, int intfNo) {
+        int divisor = baud.getDivisor();
+        int baudIndex = mChipType.hasDivisorInIndexHigh()?
+                (((divisor >> 8) & 0xff00) | intfNo) : (divisor >> 16);
+        mTransport.controlTransfer(0x40, 0, 0, intfNo, null, 0, 0);           //reset
+        mTransport.controlTransfer(0x40, 0, 1, intfNo, null, 0, 0);           //clear Rx
+        mTransport.controlTransfer(0x40, 0, 2, intfNo, null, 0, 0);           //clear Tx
+        sendFlowControl(intfNo);                                                     //flow control
+        mTransport.controlTransfer(0x40, 0x03, divisor & 0xffff, baudIndex, null, 0, 0);   //set baudrate
+        mTransport.controlTransfer(0x40, 0x04, 0x0008, intfNo, null, 0, 0);   //data bit 8, parity none, stop bit 1, tx off
+        if (mLatencyTimer > 0) {
+            mTransport.controlTransfer(0x40, 0x09, mLatencyTimer, intfNo, null, 0, 0);   //set latency timer
+        }
+        if (mEventChar >= 0) {
+            mTransport.controlTransfer(0x40, 0x06, charValue(mEventChar), intfNo, null, 0, 0);   //set event char
+        }
+        if (mErrorChar >= 0) {
+            mTransport.controlTransfer(0x40, 0x07, charValue(mErrorChar), intfNo, null, 0, 0);   //set error char
+        }
+    }
+    
+    private FTBaudRate calcFTDIBaudrate(int baud) {
+        if (baud > mChipType.getMaxBaudrate()) {
             Log.e(TAG,"Cannot set baud rate : " + baud + ", because too high." );
             Log.e(TAG,"Set baud rate : 9600" );
-            divisor = calcFT232bmBaudBaseToDiv(9600, 48000000);
+            baud = 9600;
         }
-        return divisor;
-    }
-
-    // Calculate a divisor from baud rate and base clock for FT232BM, FT2232C and FT232LR
-    // thanks to @titoi2
-    private static int calcFT232bmBaudBaseToDiv(int baud, int base) {
-        int divisor;
-        divisor = (base / 16 / baud) | (((base / 2 / baud) & 4) != 0 ? 0x4000 // 0.5
-                : ((base / 2 / baud) & 2) != 0 ? 0x8000 // 0.25
-                        : ((base / 2 / baud) & 1) != 0 ? 0xc000 // 0.125
-                                : 0);
-        return divisor;
+        FTBaudRate baudRate = FTBaudRate.calculate(baud, mChipType);
+        Log.d(TAG, "Baud rate : " + baudRate);
+        return baudRate;
     }
 }
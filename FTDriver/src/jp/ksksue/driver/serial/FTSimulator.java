@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * FTTransport which behaves like one interface of a FTDI chip, to run
+ * FTSerialPort without USB:
+ *
+ *   FTSimulator sim = new FTSimulator(FTChipType.FT232R, 256);
+ *   FTSerialPort port = new FTSerialPort(sim, "sim", 0, FTChipType.FT232R);
+ *   port.open(115200);
+ *   sim.inject(data, 0, data.length);    // the device sends data
+ *
+ * Data injected from the serial line waits in a receive FIFO of fifoSize
+ * bytes; what does not fit is dropped and reported as overrun. With flow
+ * control the chip stops the device when the FIFO is 3/4 full, by RTS or
+ * DTR off or by sending XOFF, and starts it again at 1/4: inject() then
+ * waits like the device would instead of overrunning. Bulk OUT waits
+ * while the device stops the chip by CTS or DSR off or by XOFF. A bulk IN
+ * transfer returns packets of the max packet size, each starting with the
+ * 2 status bytes, when a packet of data is ready, an event character was
+ * received or the latency timer expired (then possibly only status bytes).
+ * The reset, purge, modem control, flow control, baud rate, line property,
+ * event/error character and latency timer requests are applied.
+ * Data is not paced by the baud rate.
+ */
+public class FTSimulator implements FTTransport {
+    // vendor request type, host to device
+    private static final int REQTYPE_OUT = 0x40;
+    private static final int SIO_RESET = 0x00;
+    private static final int SIO_MODEM_CTRL = 0x01;
+    private static final int SIO_SET_FLOW_CTRL = 0x02;
+    private static final int SIO_SET_BAUD_RATE = 0x03;
+    private static final int SIO_SET_DATA = 0x04;
+    private static final int SIO_SET_EVENT_CHAR = 0x06;
+    private static final int SIO_SET_ERROR_CHAR = 0x07;
+    private static final int SIO_SET_LATENCY_TIMER = 0x09;
+    private static final int DEFAULT_LATENCY_TIMER = 16;
+    // low bits of the modem status byte, always set by the chip
+    private static final int MODEM_STATUS_RESERVED = 0x01;
+    // transmitter holding register and transmitter empty
+    private static final int LINE_STATUS_TX_EMPTY = 0x60;
+    private static final int LINE_ERRORS = FTModemStatus.PARITY_ERROR | FTModemStatus.FRAMING_ERROR;
+    private static final int TRANSMITTED_BUFFER_SIZE = 65536;
+    private static final int DTR = 0x01;
+    private static final int RTS = 0x02;
+
+    private final FTChipType mChipType;
+    private final int mPacketSize;
+    // receive FIFO of the chip
+    private final byte[] mFifo;
+    private int mFifoHead;
+    private int mFifoLen;
+    // receive flow control: device stopped above mHighWater until mLowWater
+    private final int mHighWater;
+    private final int mLowWater;
+    private boolean mRxStopped;
+    private long mRxStopCount;
+    // transmit flow control: XOFF received from the device
+    private boolean mXoffReceived;
+    private final byte[] mFlowChar = new byte[1];
+    // data sent by the host to the serial line
+    private final FTRingBuffer mTransmitted = new FTRingBuffer(TRANSMITTED_BUFFER_SIZE, FTRingBuffer.DROP_OLDEST);
+    private boolean mLoopback;
+    private boolean mClaimed;
+    // chip settings
+    private int mDivisor;
+    private int mLineProperty;
+    private int mFlowControl;
+    private int mXon;
+    private int mXoff;
+    private int mModemControl;
+    private int mLatencyTimer = DEFAULT_LATENCY_TIMER;
+    private int mEventChar = -1;
+    private int mErrorChar = -1;
+    // status reported in the packets
+    private int mModemStatus;
+    private int mLineErrors;
+    private boolean mEventReceived;
+    private long mLastFlush = System.nanoTime();
+    private long mOverrunCount;
+
+    public FTSimulator(FTChipType chipType, int fifoSize) {
+        mChipType = chipType;
+        mPacketSize = chipType.getMaxPacketSize();
+        mFifo = new byte[fifoSize];
+        mHighWater = Math.max(fifoSize * 3 / 4, 1);
+        mLowWater = fifoSize / 4;
+    }
+
+    // Serial line: data sent by the device. returns the number of bytes
+    // which fitted in the FIFO, the rest is lost as overrun. With flow
+    // control it waits while the chip stops the device.
+    public synchronized int inject(byte[] data, int offset, int length) {
+        return inject(data, offset, length, Long.MAX_VALUE);
+    }
+
+    private int inject(byte[] data, int offset, int length, long deadline) {
+        int len = 0;
+        for (; len < length; len++) {
+            if (mFlowControl != FTSerialPort.FLOW_NONE && !waitFor(false, deadline)) {
+                break;
+            }
+            if (mFifoLen == mFifo.length) {
+                mLineErrors |= FTModemStatus.OVERRUN_ERROR;
+                mOverrunCount++;
+                break;
+            }
+            byte c = data[offset + len];
+            if (mFlowControl == FTSerialPort.FLOW_XON_XOFF && (c == (byte) mXon || c == (byte) mXoff)) {
+                // taken by the chip
+                mXoffReceived = (c == (byte) mXoff);
+                notifyAll();
+                continue;
+            }
+            mFifo[(mFifoHead + mFifoLen++) % mFifo.length] = c;
+            if (mEventChar >= 0 && (c & 0xff) == mEventChar) {
+                mEventReceived = true;
+            }
+            if (mFlowControl != FTSerialPort.FLOW_NONE && !mRxStopped && mFifoLen >= mHighWater) {
+                setRxStopped(true);
+            }
+        }
+        notifyAll();
+        return len;
+    }
+
+    // Wait until the device may send (tx false) or the chip may send (tx
+    // true). false on deadline or interrupt.
+    private boolean waitFor(boolean tx, long deadline) {
+        while (tx? isTxStopped() : mRxStopped) {
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0) {
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isTxStopped() {
+        switch (mFlowControl) {
+        case FTSerialPort.FLOW_RTS_CTS:
+            return (mModemStatus & FTModemStatus.CTS) == 0;
+        case FTSerialPort.FLOW_DTR_DSR:
+            return (mModemStatus & FTModemStatus.DSR) == 0;
+        case FTSerialPort.FLOW_XON_XOFF:
+            return mXoffReceived;
+        default:
+            return false;
+        }
+    }
+
+    // RTS or DTR off, or XOFF sent, while stopped
+    private void setRxStopped(boolean stopped) {
+        mRxStopped = stopped;
+        if (stopped) {
+            mRxStopCount++;
+        }
+        if (mFlowControl == FTSerialPort.FLOW_XON_XOFF) {
+            mFlowChar[0] = (byte) (stopped? mXoff : mXon);
+            mTransmitted.write(mFlowChar, 0, 1);
+        }
+        notifyAll();
+    }
+
+    // Serial line: a byte received with errors, FTModemStatus.PARITY_ERROR,
+    // FRAMING_ERROR or BREAK_INTERRUPT. The error character is put in the
+    // FIFO for a parity or framing error if it is enabled.
+    public synchronized void injectError(int lineStatus) {
+        mLineErrors |= lineStatus;
+        if (mErrorChar >= 0 && (lineStatus & LINE_ERRORS) != 0) {
+            inject(new byte[] { (byte) mErrorChar }, 0, 1);
+        }
+        notifyAll();
+    }
+
+    // Serial line: modem inputs, FTModemStatus.CTS, DSR, RI and DCD bits.
+    public synchronized void setModemStatus(int status) {
+        mModemStatus = status & 0xf0;
+        notifyAll();
+    }
+
+    // Send data written by the host back to the receive FIFO.
+    public synchronized void setLoopback(boolean loopback) {
+        mLoopback = loopback;
+    }
+
+    // Data written by the host, unless looped back.
+    public FTRingBuffer getTransmitted() {
+        return mTransmitted;
+    }
+
+    @Override
+    public int getPacketSize() {
+        return mPacketSize;
+    }
+
+    @Override
+    public synchronized int bulkIn(byte[] buffer, int length, int timeout) {
+        if (length < 2) {
+            return -1;
+        }
+        long now = System.nanoTime();
+        long deadline = (timeout > 0)? now + TimeUnit.MILLISECONDS.toNanos(timeout) : Long.MAX_VALUE;
+        int packetPayload = mPacketSize - 2;
+        for (;;) {
+            long flushAt = mLastFlush + TimeUnit.MILLISECONDS.toNanos(mLatencyTimer);
+            if (mFifoLen >= packetPayload || mEventReceived || now >= flushAt) {
+                break;
+            }
+            long wait = Math.min(flushAt, deadline) - now;
+            if (wait <= 0) {
+                return -1;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+            now = System.nanoTime();
+        }
+        // whole packets while there is data, a short packet ends the transfer
+        int len = 0;
+        do {
+            int payload = Math.min(Math.min(mFifoLen, packetPayload), length - len - 2);
+            buffer[len++] = (byte) (mModemStatus | MODEM_STATUS_RESERVED);
+            buffer[len++] = (byte) (LINE_STATUS_TX_EMPTY | mLineErrors);
+            mLineErrors = 0;
+            for (int i = 0; i < payload; i++) {
+                buffer[len++] = mFifo[mFifoHead];
+                mFifoHead = (mFifoHead + 1) % mFifo.length;
+            }
+            mFifoLen -= payload;
+            if (payload < packetPayload) {
+                break;
+            }
+        } while (mFifoLen > 0 && length - len >= mPacketSize);
+        if (mRxStopped && mFifoLen <= mLowWater) {
+            setRxStopped(false);
+        }
+        mEventReceived = false;
+        mLastFlush = now;
+        return len;
+    }
+
+    // With flow control nothing is sent while the device stops the chip;
+    // -1 if it is still stopped after timeout ms (0 waits forever).
+    @Override
+    public synchronized int bulkOut(byte[] buffer, int offset, int length, int timeout) {
+        long deadline = (timeout > 0)? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : Long.MAX_VALUE;
+        if (!waitFor(true, deadline)) {
+            return -1;
+        }
+        if (mLoopback) {
+            int len = inject(buffer, offset, length, deadline);
+            return (len > 0 || length == 0)? len : -1;
+        }
+        mTransmitted.write(buffer, offset, length);
+        return length;
+    }
+
+    @Override
+    public synchronized int controlTransfer(int requestType, int request, int value, int index,
+            byte[] buffer, int length, int timeout) {
+        if (requestType != REQTYPE_OUT) {
+            return -1;
+        }
+        switch (request) {
+        case SIO_RESET:
+            if (value == 0) {
+                resetChip();
+            } else if (value == 1) {
+                // purge RX
+                mFifoHead = mFifoLen = 0;
+                if (mRxStopped) {
+                    setRxStopped(false);
+                }
+            }
+            // purge TX: nothing waits to be sent
+            break;
+        case SIO_MODEM_CTRL:
+            // high byte selects the bits to change
+            int mask = value >> 8;
+            mModemControl = (mModemControl & ~mask) | (value & mask);
+            break;
+        case SIO_SET_FLOW_CTRL:
+            mFlowControl = index & 0xff00;
+            mXon = value & 0xff;
+            mXoff = (value >> 8) & 0xff;
+            mRxStopped = mXoffReceived = false;
+            break;
+        case SIO_SET_BAUD_RATE:
+            int high = mChipType.hasDivisorInIndexHigh()? (index >> 8) : index;
+            mDivisor = (value & 0xffff) | ((high & 0xff) << 16);
+            break;
+        case SIO_SET_DATA:
+            mLineProperty = value;
+            break;
+        case SIO_SET_EVENT_CHAR:
+            mEventChar = ((value & 0x100) != 0)? (value & 0xff) : -1;
+            break;
+        case SIO_SET_ERROR_CHAR:
+            mErrorChar = ((value & 0x100) != 0)? (value & 0xff) : -1;
+            break;
+        case SIO_SET_LATENCY_TIMER:
+            if (value < 1 || value > 255) {
+                return -1;
+            }
+            mLatencyTimer = value;
+            break;
+        default:
+            return -1;
+        }
+        notifyAll();
+        return 0;
+    }
+
+    private void resetChip() {
+        mFifoHead = mFifoLen = 0;
+        mLineErrors = 0;
+        mEventReceived = false;
+        mFlowControl = 0;
+        mModemControl = 0;
+        mRxStopped = mXoffReceived = false;
+    }
+
+    @Override
+    public synchronized boolean claim() {
+        mClaimed = true;
+        return true;
+    }
+
+    @Override
+    public synchronized void release() {
+        mClaimed = false;
+    }
+
+    public synchronized boolean isClaimed() {
+        return mClaimed;
+    }
+
+    // Baud rate set by the host
+    public synchronized int getBaudrate() {
+        return FTBaudRate.decode(mDivisor);
+    }
+
+    public synchronized int getDivisor() {
+        return mDivisor;
+    }
+
+    // wValue of the line property request: bits 0-7 data bits,
+    // 8-10 parity, 11-13 stop bits, 14 break.
+    public synchronized int getLineProperty() {
+        return mLineProperty;
+    }
+
+    // FTSerialPort.FLOW_NONE, FLOW_RTS_CTS, FLOW_DTR_DSR or FLOW_XON_XOFF
+    public synchronized int getFlowControl() {
+        return mFlowControl;
+    }
+
+    public synchronized int getXon() {
+        return mXon;
+    }
+
+    public synchronized int getXoff() {
+        return mXoff;
+    }
+
+    // DTR and RTS are driven by the chip while they are used for flow control
+    public synchronized boolean getDtr() {
+        if (mFlowControl == FTSerialPort.FLOW_DTR_DSR) {
+            return !mRxStopped;
+        }
+        return (mModemControl & DTR) != 0;
+    }
+
+    public synchronized boolean getRts() {
+        if (mFlowControl == FTSerialPort.FLOW_RTS_CTS) {
+            return !mRxStopped;
+        }
+        return (mModemControl & RTS) != 0;
+    }
+
+    // true while the chip stops the device
+    public synchronized boolean isRxStopped() {
+        return mRxStopped;
+    }
+
+    // Number of times the chip stopped the device
+    public synchronized long getRxStopCount() {
+        return mRxStopCount;
+    }
+
+    public synchronized int getLatencyTimer() {
+        return mLatencyTimer;
+    }
+
+    // -1 when disabled
+    public synchronized int getEventChar() {
+        return mEventChar;
+    }
+
+    public synchronized int getErrorChar() {
+        return mErrorChar;
+    }
+
+    // Bytes waiting in the receive FIFO
+    public synchronized int getFifoLength() {
+        return mFifoLen;
+    }
+
+    // Number of injections which overflowed the FIFO
+    public synchronized long getOverrunCount() {
+        return mOverrunCount;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * SLIP (RFC 1055) frames. END ends a frame, ESC escapes END and ESC in it.
+ * A frame with an invalid escape or too long is dropped up to the next END.
+ */
+public class FTSlipFramer extends FTFramer {
+    public static final byte END = (byte) 0xc0;
+    public static final byte ESC = (byte) 0xdb;
+    public static final byte ESC_END = (byte) 0xdc;
+    public static final byte ESC_ESC = (byte) 0xdd;
+
+    private boolean mEscape;
+    private boolean mSkipping;
+
+    public FTSlipFramer(int maxFrameSize, FTFrameListener listener) {
+        super(maxFrameSize, listener);
+    }
+
+    @Override
+    public void decode(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte c = buffer[i];
+            if (c == END) {
+                // empty frames are only separators
+                if (!mSkipping && !mEscape && mFrameLen > 0) {
+                    emit(mFrame, 0, mFrameLen);
+                } else if (mEscape) {
+                    error();
+                }
+                mFrameLen = 0;
+                mEscape = false;
+                mSkipping = false;
+                continue;
+            }
+            if (mSkipping) {
+                continue;
+            }
+            if (mEscape) {
+                mEscape = false;
+                if (c == ESC_END) {
+                    c = END;
+                } else if (c == ESC_ESC) {
+                    c = ESC;
+                } else {
+                    error();
+                    mSkipping = true;
+                    continue;
+                }
+            } else if (c == ESC) {
+                mEscape = true;
+                continue;
+            }
+            if (!append(c)) {
+                error();
+                mSkipping = true;
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mEscape = false;
+        mSkipping = false;
+    }
+
+    // Largest encoded length of length bytes
+    public static int maxEncodedLength(int length) {
+        return length * 2 + 2;
+    }
+
+    // Encode src into dst with END at both ends. returns the length written.
+    public static int encode(byte[] src, int offset, int length, byte[] dst, int dstOffset) {
+        int d = dstOffset;
+        dst[d++] = END;
+        for (int i = offset; i < offset + length; i++) {
+            byte c = src[i];
+            if (c == END) {
+                dst[d++] = ESC;
+                dst[d++] = ESC_END;
+            } else if (c == ESC) {
+                dst[d++] = ESC;
+                dst[d++] = ESC_ESC;
+            } else {
+                dst[d++] = c;
+            }
+        }
+        dst[d++] = END;
+        return d - dstOffset;
+    }
+}
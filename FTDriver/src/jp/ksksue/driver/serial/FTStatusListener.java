@@ -0,0 +1,18 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * Changes of the status bytes sent by the chip. called on the thread which
+ * receives data, so it should return quickly.
+ */
+public interface FTStatusListener {
+    // CTS, DSR, RI or DCD changed. see FTModemStatus for the bits.
+    void onModemStatusChanged(int oldStatus, int newStatus);
+
+    // A packet reported overrun, parity, framing error or break.
+    void onLineError(int lineStatus);
+}
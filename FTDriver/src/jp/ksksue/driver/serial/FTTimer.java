@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * One daemon thread shared by all ports to run delayed tasks.
+ */
+final class FTTimer {
+    private static ScheduledExecutorService sExecutor;
+
+    private FTTimer() {
+    }
+
+    static synchronized ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, FTTimer.class.getSimpleName());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return sExecutor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+/*
+ * USB transfers of a port: bulk transfers of its input and output streams
+ * and control transfers setting up the chip.
+ * This is implemented with UsbDeviceConnection on Android (FTUsbTransport)
+ * and can be implemented without USB, e.g. FTReplayTransport and FTSimulator.
+ */
+public interface FTTransport {
+    // Max packet size of the endpoints. every IN packet starts with 2 status bytes.
+    int getPacketSize();
+
+    // Receive up to length bytes of packets into buffer.
+    // returns the received length, or -1 on error or timeout.
+    int bulkIn(byte[] buffer, int length, int timeout);
+
+    // Send length bytes of buffer from offset.
+    // returns the sent length, or -1 on error.
+    int bulkOut(byte[] buffer, int offset, int length, int timeout);
+
+    // Control transfer on endpoint 0, like UsbDeviceConnection.controlTransfer.
+    // returns the transferred length, or -1 on error.
+    int controlTransfer(int requestType, int request, int value, int index,
+            byte[] buffer, int length, int timeout);
+
+    // Take/give back the interface of the port, when it is opened/closed.
+    boolean claim();
+
+    void release();
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+import android.util.Log;
+
+/*
+ * FTRequestQueue with UsbRequests on IN endpoints of a connection.
+ * requestWait returns any completed request of the connection, so only one
+ * queue should be used per UsbDeviceConnection (FTDevice keeps one
+ * FTEventLoop for that). requests on several endpoints can be added to it,
+ * also while another thread waits in requestWait.
+ */
+class FTUsbRequestQueue implements FTRequestQueue {
+    private static final String TAG = FTUsbRequestQueue.class.getSimpleName();
+    private UsbDeviceConnection mDeviceConnection;
+    private List<UsbRequest> mRequests = new ArrayList<UsbRequest>();
+    
+    public FTUsbRequestQueue(UsbDeviceConnection conn) {
+        mDeviceConnection = conn;
+    }
+
+    @Override
+    public synchronized int addRequests(FTSerialPort port, int count) {
+        return addRequests(port.getInEndpoint(), count);
+    }
+
+    // Add count requests on ep and return id of the first one.
+    public synchronized int addRequests(UsbEndpoint ep, int count) {
+        int first = mRequests.size();
+        for (int i = 0; i < count; i++) {
+            UsbRequest request = new UsbRequest();
+            if (!request.initialize(mDeviceConnection, ep)) {
+                close();
+                throw new IllegalArgumentException("failed to initialize UsbRequest");
+            }
+            request.setClientData(Integer.valueOf(first + i));
+            mRequests.add(request);
+        }
+        return first;
+    }
+
+    @Override
+    public synchronized int getRequestCount() {
+        return mRequests.size();
+    }
+
+    @Override
+    public synchronized boolean queue(int id, ByteBuffer buffer, int length) {
+        buffer.clear();
+        return mRequests.get(id).queue(buffer, length);
+    }
+
+    @Override
+    public int requestWait() {
+        // not synchronized, the others are called while waiting
+        UsbRequest request = mDeviceConnection.requestWait();
+        if (request == null) {
+            return -1;
+        }
+        Object id = request.getClientData();
+        synchronized (this) {
+            if (!(id instanceof Integer) || (Integer) id >= mRequests.size()
+                    || request != mRequests.get((Integer) id)) {
+                Log.w(TAG, "unknown request completed");
+                return UNKNOWN_REQUEST;
+            }
+        }
+        return (Integer) id;
+    }
+
+    @Override
+    public synchronized void cancel(int id) {
+        mRequests.get(id).cancel();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (UsbRequest request : mRequests) {
+            request.close();
+        }
+        mRequests.clear();
+    }
+}
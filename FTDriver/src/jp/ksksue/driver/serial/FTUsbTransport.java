@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.os.Build;
+
+/*
+ * FTTransport with an interface of a UsbDeviceConnection.
+ * endpoint 0 of the interface is IN, 1 is OUT.
+ */
+class FTUsbTransport implements FTTransport {
+    private UsbDeviceConnection mDeviceConnection;
+    private UsbInterface mInterface;
+    private UsbEndpoint mIn;
+    private UsbEndpoint mOut;
+    private int mPacketSize;
+    // copy of data sent from an offset before API 18
+    private byte[] mOutBuf = new byte[0];
+
+    // defaultPacketSize is used if the endpoint doesn't tell its packet size.
+    public FTUsbTransport(UsbDeviceConnection conn, UsbInterface intf, int defaultPacketSize) {
+        mDeviceConnection = conn;
+        mInterface = intf;
+        mIn = intf.getEndpoint(0);
+        mOut = intf.getEndpoint(1);
+        mPacketSize = mIn.getMaxPacketSize();
+        if (mPacketSize == 0) {
+            mPacketSize = defaultPacketSize;
+        }
+    }
+
+    @Override
+    public int getPacketSize() {
+        return mPacketSize;
+    }
+
+    @Override
+    public int bulkIn(byte[] buffer, int length, int timeout) {
+        return mDeviceConnection.bulkTransfer(mIn, buffer, length, timeout);
+    }
+
+    // The buffer is passed to bulkTransfer as it is when possible.
+    // bulkTransfer with an offset is available from API 18, so on older
+    // versions only a transfer starting at the head of buffer is not copied.
+    // called by one writer at a time.
+    @Override
+    public int bulkOut(byte[] buffer, int offset, int length, int timeout) {
+        if (offset == 0) {
+            return mDeviceConnection.bulkTransfer(mOut, buffer, length, timeout);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return mDeviceConnection.bulkTransfer(mOut, buffer, offset, length, timeout);
+        }
+        if (mOutBuf.length < length) {
+            mOutBuf = new byte[length];
+        }
+        System.arraycopy(buffer, offset, mOutBuf, 0, length);
+        return mDeviceConnection.bulkTransfer(mOut, mOutBuf, length, timeout);
+    }
+
+    @Override
+    public int controlTransfer(int requestType, int request, int value, int index,
+            byte[] buffer, int length, int timeout) {
+        return mDeviceConnection.controlTransfer(requestType, request, value, index, buffer, length, timeout);
+    }
+
+    @Override
+    public boolean claim() {
+        return mDeviceConnection.claimInterface(mInterface, false);
+    }
+
+    @Override
+    public void release() {
+        mDeviceConnection.releaseInterface(mInterface);
+    }
+}
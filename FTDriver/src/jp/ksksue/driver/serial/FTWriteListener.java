@@ -0,0 +1,21 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.io.IOException;
+
+/*
+ * Result of FTSerialPort.writeAsync. called on the port's writer thread
+ * when the write is sent or its transfer fails, on the thread calling
+ * writeAsync when the write is rejected, and on the thread calling close()
+ * when a queued write is cancelled.
+ */
+public interface FTWriteListener {
+    void onWriteComplete(int length);
+
+    // e is thrown by the transfer, or tells the write was cancelled or rejected.
+    void onWriteFailed(IOException e);
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+// writeAsync against a transport whose bulk OUT waits until released
+public class FTAsyncWriterTest {
+    private final CountDownLatch mSending = new CountDownLatch(1);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+    private volatile int mTimeout = -1;
+    private final ScriptedTransport mTransport = new ScriptedTransport(64) {
+        @Override
+        public int bulkOut(byte[] buffer, int offset, int length, int timeout) {
+            mTimeout = timeout;
+            mSending.countDown();
+            // like bulkTransfer, not interrupted by close()
+            boolean interrupted = false;
+            while (mRelease.getCount() > 0) {
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return super.bulkOut(buffer, offset, length, timeout);
+        }
+    };
+    private final FTSerialPort mPort = new FTSerialPort(mTransport, "fake", 0, FTChipType.FT232R);
+    private final byte[] mData = "data".getBytes();
+
+    private static void assertFails(Future<Integer> future) throws InterruptedException {
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    // the write being sent counts against the depth
+    @Test
+    public void depthBoundsPendingWrites() throws Exception {
+        mPort.open(115200);
+        mPort.setWriteQueueDepth(2);
+        Future<Integer> sent = mPort.writeAsync(mData, 0, mData.length, null);
+        assertTrue(mSending.await(5, TimeUnit.SECONDS));
+        Future<Integer> queued = mPort.writeAsync(mData, 0, mData.length, null);
+        assertTrue(mPort.isWriteQueueFull());
+        assertFails(mPort.writeAsync(mData, 0, mData.length, null));
+        mRelease.countDown();
+        assertEquals(mData.length, (int) sent.get(5, TimeUnit.SECONDS));
+        assertEquals(mData.length, (int) queued.get(5, TimeUnit.SECONDS));
+        assertFalse(mPort.isWriteQueueFull());
+        assertEquals("datadata", new String(mTransport.getSent()));
+        mPort.close();
+    }
+
+    // a write stuck in bulk OUT holds the output stream; close() must not wait for it
+    @Test(timeout = 5000)
+    public void closeDoesNotWaitForStuckWrite() throws Exception {
+        mPort.open(115200);
+        mPort.setWriteCoalescing(64, 0);
+        Future<Integer> stuck = mPort.writeAsync(new byte[64], 0, 64, null);
+        assertTrue(mSending.await(5, TimeUnit.SECONDS));
+        assertTrue(mTimeout > 0);
+        Future<Integer> queued = mPort.writeAsync(mData, 0, mData.length, null);
+        long start = System.nanoTime();
+        mPort.close();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertTrue(queued.isCancelled());
+        mRelease.countDown();
+        assertEquals(64, (int) stuck.get(5, TimeUnit.SECONDS));
+        // nothing more is sent after close()
+        try {
+            mPort.getOutputStream().write(mData);
+            fail();
+        } catch (IOException e) {
+        }
+        assertEquals(64, mTransport.getSent().length);
+    }
+
+    @Test
+    public void closedPortRejectsWrites() throws Exception {
+        mPort.open(115200);
+        mRelease.countDown();
+        mPort.writeAsync(mData, 0, mData.length, null).get(5, TimeUnit.SECONDS);
+        mPort.close();
+        final Thread caller = Thread.currentThread();
+        final IOException[] failure = new IOException[1];
+        Future<Integer> future = mPort.writeAsync(mData, 0, mData.length, new FTWriteListener() {
+            @Override
+            public void onWriteComplete(int length) {
+                fail();
+            }
+
+            @Override
+            public void onWriteFailed(IOException e) {
+                assertSame(caller, Thread.currentThread());
+                failure[0] = e;
+            }
+        });
+        assertFails(future);
+        assertTrue(failure[0] != null);
+        // no writer thread is started again
+        assertFalse(mPort.isWriteQueueFull());
+        assertEquals(0, mPort.getQueuedWriteCount());
+        assertEquals(mData.length, mTransport.getSent().length);
+    }
+
+    @Test
+    public void unopenedPortRejectsWrites() throws Exception {
+        mRelease.countDown();
+        assertFails(mPort.writeAsync(mData, 0, mData.length, null));
+        assertEquals(0, mTransport.getSent().length);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FTBaudRateTest {
+    // baud rate, divisor, error in percent
+    private static final double[][] FT232R = {
+        { 300, 0x2710, 0 },
+        { 600, 0x1388, 0 },
+        { 1200, 0x09c4, 0 },
+        { 2400, 0x04e2, 0 },
+        { 4800, 0x0271, 0 },
+        { 9600, 0x4138, 0 },
+        { 19200, 0x809c, 0 },
+        { 38400, 0xc04e, 0 },
+        { 57600, 0xc034, -0.08 },
+        { 115200, 0x001a, 0.16 },
+        { 230400, 0x000d, 0.16 },
+        { 460800, 0x4006, 0.16 },
+        { 921600, 0x8003, 0.16 },
+        { 1000000, 0x0003, 0 },
+        { 2000000, 0x0001, 0 },
+        { 3000000, 0x0000, 0 },
+    };
+
+    // 48MHz divisors are kept when 120MHz is not better
+    private static final double[][] FT232H = {
+        { 300, 0x2710, 0 },
+        { 600, 0x1388, 0 },
+        { 1200, 0x09c4, 0 },
+        { 2400, 0x04e2, 0 },
+        { 9600, 0x4138, 0 },
+        { 57600, 0x300d0, -0.02 },
+        { 115200, 0x2c068, 0.04 },
+        { 230400, 0x2c034, -0.08 },
+        { 460800, 0x4006, 0.16 },
+        { 921600, 0x8003, 0.16 },
+        { 1000000, 0x0003, 0 },
+        { 3000000, 0x0000, 0 },
+        { 6000000, 0x20002, 0 },
+        { 12000000, 0x20000, 0 },
+    };
+
+    // no 3/8, 5/8, 3/4, 7/8 and 1.5
+    private static final double[][] FT232AM = {
+        { 9600, 0x4138, 0 },
+        { 57600, 0xc034, -0.08 },
+        { 921600, 0x8003, 0.16 },
+        { 2000000, 0x0002, -25 },
+    };
+
+    private static void check(FTChipType chipType, double[][] table) {
+        for (double[] row : table) {
+            int baud = (int) row[0];
+            FTBaudRate rate = FTBaudRate.calculate(baud, chipType);
+            String msg = chipType + " " + rate;
+            assertEquals(msg, (int) row[1], rate.getDivisor());
+            assertEquals(msg, row[2], rate.getError(), 0.005);
+            assertEquals(msg, rate.getBaudrate(), FTBaudRate.decode(rate.getDivisor()));
+        }
+    }
+
+    @Test
+    public void standardRatesAt48MHz() {
+        check(FTChipType.FT232R, FT232R);
+    }
+
+    @Test
+    public void standardRatesOnHiSpeedChips() {
+        check(FTChipType.FT232H, FT232H);
+    }
+
+    @Test
+    public void fractionsOfFT232AM() {
+        check(FTChipType.FT232AM, FT232AM);
+    }
+
+    // the error reported must not hide an inexact divisor
+    @Test
+    public void exactDivisorWins() {
+        for (int baud = 300; baud <= 3000000; baud *= 2) {
+            FTBaudRate rate = FTBaudRate.calculate(baud, FTChipType.FT232H);
+            if (rate.getError() == 0) {
+                assertEquals(rate.toString(), baud, FTBaudRate.decode(rate.getDivisor()));
+            }
+            assertTrue(rate.toString(), Math.abs(rate.getError()) < 3);
+        }
+    }
+}
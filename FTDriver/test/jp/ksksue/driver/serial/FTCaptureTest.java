@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FTCaptureTest {
+    // 3Mbaud with 8N1 is 300000 bytes/s
+    private static final int BYTES_PER_SECOND = 300000;
+    private static final int TRANSFER_SIZE = 512;
+
+    @Rule
+    public TemporaryFolder mDir = new TemporaryFolder();
+
+    private File file(int index) {
+        return new File(mDir.getRoot(), String.format("cap-%04d%s", index, FTCapture.EXTENSION));
+    }
+
+    @Test
+    public void recordsAreReadBack() throws Exception {
+        FTCapture capture = new FTCapture(mDir.getRoot(), "cap", 1 << 20, 2, 0);
+        capture.setPacketSize(64);
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        capture.record(FTCapture.RX, data, 0, 10);
+        capture.record(FTCapture.TX, data, 10, 90);
+        capture.close();
+        assertEquals(2, capture.getRecordCount());
+        assertEquals(0, capture.getDroppedCount());
+
+        FTCaptureReader reader = new FTCaptureReader(file(0));
+        assertEquals(64, reader.getPacketSize());
+        assertTrue(reader.next());
+        assertEquals(FTCapture.RX, reader.getDirection());
+        assertEquals(10, reader.getLength());
+        assertEquals(9, reader.getData()[9]);
+        long time = reader.getTime();
+        assertTrue(reader.next());
+        assertEquals(FTCapture.TX, reader.getDirection());
+        assertEquals(90, reader.getLength());
+        assertEquals(10, reader.getData()[0]);
+        assertEquals(99, reader.getData()[89]);
+        assertTrue(reader.getTime() >= time);
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    // records wrap around the end of the ring, and rotate to a new file
+    @Test
+    public void wrapsRingAndRotatesFiles() throws Exception {
+        FTCapture capture = new FTCapture(mDir.getRoot(), "cap", 0, 10, 0);
+        byte[] data = new byte[5000];
+        int records = 0;
+        for (int i = 0; i < 20; i++) {
+            data[0] = (byte) i;
+            capture.record(FTCapture.RX, data, 0, data.length);
+            records++;
+            // let the writer keep up, the ring holds 3 of them
+            while (capture.getRecordCount() + capture.getDroppedCount() < records) {
+                Thread.sleep(1);
+            }
+        }
+        capture.close();
+        assertEquals(20, capture.getRecordCount());
+        int index = 0;
+        for (int i = 0; file(i).exists(); i++) {
+            FTCaptureReader reader = new FTCaptureReader(file(i));
+            while (reader.next()) {
+                assertEquals(data.length, reader.getLength());
+                assertEquals((byte) index++, reader.getData()[0]);
+            }
+            reader.close();
+        }
+        assertEquals(20, index);
+        assertTrue(file(1).exists());
+    }
+
+    // one second of 3Mbaud RX, in transfers of 512 bytes every few ms
+    @Test
+    public void keepsUpWith3Mbaud() throws Exception {
+        FTCapture capture = new FTCapture(mDir.getRoot(), "cap", 4 << 20, 2, 64 * 1024);
+        byte[] transfer = new byte[TRANSFER_SIZE];
+        long start = System.nanoTime();
+        long sent = 0;
+        while (sent < BYTES_PER_SECOND) {
+            long due = (System.nanoTime() - start) * BYTES_PER_SECOND / 1000000000L;
+            if (sent + TRANSFER_SIZE > due) {
+                Thread.sleep(1);
+                continue;
+            }
+            capture.record(FTCapture.RX, transfer, 0, TRANSFER_SIZE);
+            sent += TRANSFER_SIZE;
+        }
+        capture.close();
+        assertEquals(0, capture.getDroppedCount());
+        assertEquals(sent / TRANSFER_SIZE, capture.getRecordCount());
+    }
+}
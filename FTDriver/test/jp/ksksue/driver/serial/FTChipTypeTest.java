@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class FTChipTypeTest {
+    @Test
+    public void detectFromBcdDevice() {
+        assertEquals(FTChipType.FT232AM, FTChipType.detect(0x6001, 0x0200, 3, false));
+        assertEquals(FTChipType.FT232BM, FTChipType.detect(0x6001, 0x0400, 3, false));
+        assertEquals(FTChipType.FT2232C, FTChipType.detect(0x6010, 0x0500, 3, false));
+        assertEquals(FTChipType.FT232R, FTChipType.detect(0x6001, 0x0600, 3, false));
+        assertEquals(FTChipType.FT2232H, FTChipType.detect(0x6010, 0x0700, 3, false));
+        assertEquals(FTChipType.FT4232H, FTChipType.detect(0x6011, 0x0800, 3, false));
+        assertEquals(FTChipType.FT232H, FTChipType.detect(0x6014, 0x0900, 3, false));
+    }
+
+    // FT232BM without serial number reports the bcdDevice of FT232AM,
+    // but answers GET_LATENCY_TIMER
+    @Test
+    public void bmWithoutSerialNumber() {
+        assertEquals(FTChipType.FT232BM, FTChipType.detect(0x6001, 0x0200, 0, true));
+    }
+
+    @Test
+    public void amWithoutSerialNumber() {
+        assertEquals(FTChipType.FT232AM, FTChipType.detect(0x6001, 0x0200, 0, false));
+        assertEquals(FTChipType.FT232AM, FTChipType.detect(0x6001, 0x0200, 3, false));
+        assertEquals(FTChipType.FT232AM, FTChipType.detect(0x6001, 0x0200, -1, false));
+        assertEquals(FTChipType.FT232AM, FTChipType.detect(0x6001, 0x0200));
+    }
+
+    @Test
+    public void detectFromProductId() {
+        assertEquals(FTChipType.FT232R, FTChipType.detect(0x6001, -1));
+        assertEquals(FTChipType.FT2232C, FTChipType.detect(0x6010, -1));
+        assertEquals(FTChipType.FT4232H, FTChipType.detect(0x6011, -1));
+        assertEquals(FTChipType.FT232H, FTChipType.detect(0x6014, -1));
+        assertEquals(FTChipType.UNKNOWN, FTChipType.detect(0x1234, 0x1000));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FTCsvDecoderTest {
+    private final FTCsvDecoder mDecoder = new FTCsvDecoder(',',
+            FTCsvDecoder.DECIMAL, FTCsvDecoder.INTEGER, FTCsvDecoder.TEXT);
+    private final FTCsvRecord mRecord = mDecoder.newRecord();
+
+    private boolean decode(String line) {
+        byte[] b = line.getBytes();
+        return mDecoder.decode(b, 0, b.length, mRecord);
+    }
+
+    @Test
+    public void decodesFields() {
+        assertTrue(decode("25.5, -12,12:34:56\r"));
+        assertEquals(25.5, mRecord.getDouble(0), 0);
+        assertEquals(-12, mRecord.getInt(1));
+        char[] text = new char[16];
+        int len = mRecord.getText(2, text, 0);
+        assertEquals("12:34:56", new String(text, 0, len));
+    }
+
+    @Test
+    public void badLineIsCounted() {
+        assertFalse(decode("x,1,a"));
+        assertEquals(1, mDecoder.getErrorCount());
+    }
+
+    // a field longer than the buffer is cut, not thrown
+    @Test
+    public void longTextIsCut() {
+        assertTrue(decode("1,2,0123456789abcdefghij"));
+        char[] text = new char[16];
+        assertEquals(20, mRecord.getTextLength(2));
+        assertEquals(12, mRecord.getText(2, text, 4));
+        assertEquals("0123456789ab", new String(text, 4, 12));
+    }
+}
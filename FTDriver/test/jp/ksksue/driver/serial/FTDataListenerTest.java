@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static jp.ksksue.driver.serial.ScriptedTransport.packet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+// Removing the listener with setDataListener(null)
+public class FTDataListenerTest {
+    // sends "data" once, then status-only packets every few ms, like an idle chip
+    private final ScriptedTransport mTransport = new ScriptedTransport(64) {
+        @Override
+        public synchronized int bulkIn(byte[] buffer, int length, int timeout) {
+            if (getInCalls() > 0) {
+                try {
+                    wait(5);
+                } catch (InterruptedException e) {
+                    return -1;
+                }
+                addIn(packet(0, 0, ""));
+            }
+            return super.bulkIn(buffer, length, timeout);
+        }
+    };
+    private final FTSerialPort mPort = new FTSerialPort(mTransport, "fake", 0, FTChipType.FT232R);
+    private final AtomicInteger mCalls = new AtomicInteger();
+    private final FTDataListener mListener = new FTDataListener() {
+        @Override
+        public void onDataReceived(byte[] data, int length) {
+            mCalls.incrementAndGet();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        mPort.close();
+    }
+
+    private void waitForInCalls(int calls) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (mTransport.getInCalls() < calls && System.currentTimeMillis() < end) {
+            Thread.sleep(1);
+        }
+        assertTrue(mTransport.getInCalls() >= calls);
+    }
+
+    @Test
+    public void removalStopsStartedReader() throws Exception {
+        mTransport.addIn(packet(0, 0, "data"));
+        mPort.open(115200);
+        mPort.setDataListener(mListener);
+        waitForInCalls(3);
+        mPort.setDataListener(null);
+        int calls = mTransport.getInCalls();
+        Thread.sleep(100);
+        assertEquals(calls, mTransport.getInCalls());
+        assertEquals(1, mCalls.get());
+    }
+
+    // the reader started by startReader() is left running
+    @Test
+    public void removalKeepsOwnReader() throws Exception {
+        mTransport.addIn(packet(0, 0, "data"));
+        mPort.open(115200);
+        mPort.startReader(4096, FTRingBuffer.DROP_OLDEST);
+        mPort.setDataListener(mListener);
+        waitForInCalls(3);
+        mPort.setDataListener(null);
+        int calls = mTransport.getInCalls();
+        waitForInCalls(calls + 3);
+    }
+
+    // data waiting for the batch window is not delivered after removal
+    @Test
+    public void noCallbackAfterRemoval() throws Exception {
+        mTransport.addIn(packet(0, 0, "data"));
+        mPort.open(115200);
+        mPort.setDataBatching(0, 100);
+        mPort.setDataListener(mListener);
+        // "data" is in the buffer once the next transfer is asked for
+        waitForInCalls(2);
+        mPort.setDataListener(null);
+        Thread.sleep(200);
+        assertEquals(0, mCalls.get());
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+// Two ports of a connection served by one loop over MemoryRequestQueue
+public class FTEventLoopTest {
+    private final FTSimulator mSimA = new FTSimulator(FTChipType.FT2232C, 4096);
+    private final FTSimulator mSimB = new FTSimulator(FTChipType.FT2232C, 4096);
+    private final FTSerialPort mPortA = new FTSerialPort(mSimA, "sim", 0, FTChipType.FT2232C);
+    private final FTSerialPort mPortB = new FTSerialPort(mSimB, "sim", 1, FTChipType.FT2232C);
+    private final MemoryRequestQueue mQueue = new MemoryRequestQueue();
+    private final FTEventLoop mLoop = new FTEventLoop(mQueue);
+
+    @After
+    public void tearDown() {
+        mLoop.stop();
+        mPortA.close();
+        mPortB.close();
+    }
+
+    private static String receive(FTSerialPort port, int length) throws IOException {
+        InputStream in = port.getInputStream();
+        byte[] buf = new byte[length];
+        int len = 0;
+        long deadline = System.currentTimeMillis() + 2000;
+        while (len < length && System.currentTimeMillis() < deadline) {
+            len += in.read(buf, len, length - len);
+            Thread.yield();
+        }
+        return new String(buf, 0, len);
+    }
+
+    private static void send(FTSimulator sim, String s) {
+        byte[] b = s.getBytes();
+        sim.inject(b, 0, b.length);
+    }
+
+    @Test
+    public void eachPortGetsItsOwnData() throws Exception {
+        mPortA.open(115200);
+        mPortB.open(115200);
+        assertTrue(mLoop.addPort(mPortA, 2, 256, 4096));
+        mLoop.start();
+        // added while running
+        assertTrue(mLoop.addPort(mPortB, 2, 256, 4096));
+        send(mSimA, "port A");
+        send(mSimB, "port B data");
+        assertEquals("port A", receive(mPortA, 6));
+        assertEquals("port B data", receive(mPortB, 11));
+        assertEquals(4, mQueue.getRequestCount());
+    }
+
+    // adding and removing a port leaves the requests of the other port queued
+    @Test
+    public void otherPortKeepsItsRequests() throws Exception {
+        mPortA.open(115200);
+        mPortB.open(115200);
+        assertTrue(mLoop.addPort(mPortA, 2, 256, 4096));
+        mLoop.start();
+        send(mSimA, "before");
+        assertTrue(mLoop.addPort(mPortB, 2, 256, 4096));
+        send(mSimB, "B");
+        assertEquals("B", receive(mPortB, 1));
+        mLoop.removePort(mPortB);
+        send(mSimA, " after");
+        assertEquals("before after", receive(mPortA, 12));
+        assertEquals(0, mQueue.getCancelCount(0));
+        assertEquals(0, mQueue.getCancelCount(1));
+        assertEquals(1, mQueue.getCancelCount(2));
+        assertEquals(1, mQueue.getCancelCount(3));
+        assertFalse(mLoop.isClosed());
+    }
+
+    // completions of another queue of the connection do not stop the loop
+    @Test
+    public void foreignCompletionsAreSkipped() throws Exception {
+        mPortA.open(115200);
+        mQueue.addForeign(3);
+        assertTrue(mLoop.addPort(mPortA, 2, 256, 4096));
+        mLoop.start();
+        send(mSimA, "after foreign");
+        assertEquals("after foreign", receive(mPortA, 13));
+    }
+
+    @Test
+    public void closedPortLeavesLoop() throws Exception {
+        mPortA.open(115200);
+        mPortB.open(115200);
+        assertTrue(mLoop.addPort(mPortA, 2, 256, 4096));
+        assertTrue(mLoop.addPort(mPortB, 2, 256, 4096));
+        assertFalse(mLoop.addPort(mPortB, 2, 256, 4096));
+        mLoop.start();
+        mPortA.close();
+        send(mSimB, "still here");
+        assertEquals("still here", receive(mPortB, 10));
+        assertFalse(mLoop.isClosed());
+        // its requests are reused
+        mPortA.open(115200);
+        assertTrue(mLoop.addPort(mPortA, 2, 256, 4096));
+        assertEquals(4, mQueue.getRequestCount());
+        send(mSimA, "again");
+        assertEquals("again", receive(mPortA, 5));
+        mLoop.removePort(mPortA);
+        mLoop.removePort(mPortB);
+        assertTrue(mLoop.isClosed());
+        assertTrue(mQueue.isClosed());
+    }
+
+    // the port is left without reader when its requests cannot be made
+    @Test
+    public void failedAddRollsBack() throws Exception {
+        mPortA.open(115200);
+        mQueue.setFailAdd(true);
+        try {
+            mLoop.addPort(mPortA, 2, 256, 4096);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        mQueue.setFailAdd(false);
+        mPortA.startReader(4096, FTRingBuffer.DROP_OLDEST);
+        send(mSimA, "reader");
+        assertEquals("reader", receive(mPortA, 6));
+    }
+}
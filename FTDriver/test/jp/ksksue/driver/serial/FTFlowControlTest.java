@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+// Sustained input read by a slow consumer: with flow control the chip stops
+// the device instead of overrunning its FIFO.
+public class FTFlowControlTest {
+    private static final int TOTAL = 64 * 1024;
+    private static final int FIFO_SIZE = 384;
+    private static final int BUFFER_SIZE = 1024;
+
+    private final FTSimulator mSim = new FTSimulator(FTChipType.FT232R, FIFO_SIZE);
+    private final FTSerialPort mPort = new FTSerialPort(mSim, "sim", 0, FTChipType.FT232R);
+    private Thread mDevice;
+
+    @After
+    public void tearDown() throws Exception {
+        if (mDevice != null) {
+            mDevice.interrupt();
+            mDevice.join();
+        }
+        mPort.close();
+    }
+
+    // the device sends TOTAL bytes of a counting pattern as fast as it may
+    private void startDevice() {
+        mDevice = new Thread() {
+            @Override
+            public void run() {
+                byte[] chunk = new byte[100];
+                int sent = 0;
+                while (sent < TOTAL && !isInterrupted()) {
+                    int len = Math.min(chunk.length, TOTAL - sent);
+                    for (int i = 0; i < len; i++) {
+                        chunk[i] = (byte) (sent + i);
+                    }
+                    sent += mSim.inject(chunk, 0, len);
+                }
+            }
+        };
+        mDevice.start();
+    }
+
+    // read in small pieces with a pause between them; returns bytes in order
+    private int consumeSlowly(long timeoutMillis) throws Exception {
+        InputStream in = mPort.getInputStream();
+        byte[] buf = new byte[256];
+        int received = 0;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (received < TOTAL && System.currentTimeMillis() < deadline) {
+            int len = in.read(buf, 0, buf.length);
+            for (int i = 0; i < len; i++) {
+                if (buf[i] != (byte) (received + i)) {
+                    return received + i;
+                }
+            }
+            received += len;
+            Thread.sleep(1);
+        }
+        return received;
+    }
+
+    @Test
+    public void rtsCtsLosesNothing() throws Exception {
+        mPort.open(3000000, FTSerialPort.FLOW_RTS_CTS);
+        mPort.startReader(BUFFER_SIZE, FTRingBuffer.BLOCK);
+        startDevice();
+        assertEquals(TOTAL, consumeSlowly(20000));
+        assertEquals(0, mSim.getOverrunCount());
+        assertTrue(mSim.getRxStopCount() > 0);
+    }
+
+    @Test
+    public void xonXoffLosesNothing() throws Exception {
+        // the pattern must not contain XON and XOFF
+        mPort.open(3000000, FTSerialPort.FLOW_XON_XOFF);
+        mPort.startReader(BUFFER_SIZE, FTRingBuffer.BLOCK);
+        mDevice = new Thread() {
+            @Override
+            public void run() {
+                byte[] chunk = new byte[100];
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = 'a';
+                }
+                int sent = 0;
+                while (sent < TOTAL && !isInterrupted()) {
+                    sent += mSim.inject(chunk, 0, Math.min(chunk.length, TOTAL - sent));
+                }
+            }
+        };
+        mDevice.start();
+        InputStream in = mPort.getInputStream();
+        byte[] buf = new byte[256];
+        int received = 0;
+        long deadline = System.currentTimeMillis() + 20000;
+        while (received < TOTAL && System.currentTimeMillis() < deadline) {
+            received += in.read(buf, 0, buf.length);
+            Thread.sleep(1);
+        }
+        assertEquals(TOTAL, received);
+        assertEquals(0, mSim.getOverrunCount());
+        assertTrue(mSim.getRxStopCount() > 0);
+    }
+
+    // the same load without flow control overruns the FIFO
+    @Test
+    public void noFlowControlOverruns() throws Exception {
+        mPort.open(3000000);
+        mPort.startReader(BUFFER_SIZE, FTRingBuffer.BLOCK);
+        startDevice();
+        consumeSlowly(300);
+        mDevice.join(5000);
+        assertTrue(mSim.getOverrunCount() > 0);
+    }
+}
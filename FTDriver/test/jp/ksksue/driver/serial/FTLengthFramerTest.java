@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+public class FTLengthFramerTest {
+    private final ByteArrayOutputStream mFrames = new ByteArrayOutputStream();
+    private final FTFrameListener mListener = new FTFrameListener() {
+        @Override
+        public void onFrame(byte[] frame, int offset, int length) {
+            mFrames.write(frame, offset, length);
+        }
+    };
+
+    private void roundTrip(int prefixSize, int length) {
+        byte[] src = new byte[length];
+        for (int i = 0; i < length; i++) {
+            src[i] = (byte) i;
+        }
+        byte[] dst = new byte[length + prefixSize];
+        assertEquals(dst.length, FTLengthFramer.encode(src, 0, length, dst, 0, prefixSize));
+        FTLengthFramer framer = new FTLengthFramer(prefixSize, length, mListener);
+        framer.decode(dst, 0, dst.length);
+        assertArrayEquals(src, mFrames.toByteArray());
+    }
+
+    @Test
+    public void largestFrameFitsOneBytePrefix() {
+        roundTrip(1, 255);
+    }
+
+    @Test
+    public void largestFrameFitsTwoBytePrefix() {
+        roundTrip(2, 65535);
+    }
+
+    // the prefix would be cut to the low bits and the decoder get out of sync
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLongForOneBytePrefix() {
+        FTLengthFramer.encode(new byte[256], 0, 256, new byte[257], 0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLongForTwoBytePrefix() {
+        FTLengthFramer.encode(new byte[65536], 0, 65536, new byte[65538], 0, 2);
+    }
+}
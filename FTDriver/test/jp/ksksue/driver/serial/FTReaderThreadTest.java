@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static jp.ksksue.driver.serial.ScriptedTransport.packet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+// ScriptedTransport fails every bulk IN at once when its script is used up
+public class FTReaderThreadTest {
+    private final ScriptedTransport mTransport = new ScriptedTransport(64);
+    private final FTSerialPort mPort = new FTSerialPort(mTransport, "fake", 0, FTChipType.FT232R);
+    private final CountDownLatch mFailed = new CountDownLatch(1);
+    private final AtomicInteger mErrors = new AtomicInteger();
+
+    private void startReader(final boolean closeOnError) {
+        mPort.open(115200);
+        mPort.setErrorListener(new FTErrorListener() {
+            @Override
+            public void onReadError(FTSerialPort port, int errors) {
+                assertSame(mPort, port);
+                mErrors.set(errors);
+                if (closeOnError) {
+                    port.close();
+                }
+                mFailed.countDown();
+            }
+        });
+        mPort.startReader(4096, FTRingBuffer.DROP_OLDEST);
+    }
+
+    @Test
+    public void stopsAfterErrorsInARow() throws Exception {
+        long start = System.nanoTime();
+        startReader(false);
+        assertTrue(mFailed.await(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(FTReaderThread.MAX_ERRORS, mErrors.get());
+        // no spinning: one transfer per error, with growing waits between them
+        Thread.sleep(50);
+        assertEquals(FTReaderThread.MAX_ERRORS, mTransport.getInCalls());
+        assertTrue(elapsed + " ms", elapsed >= 300);
+        mPort.close();
+    }
+
+    @Test
+    public void dataResetsErrorCount() throws Exception {
+        for (int i = 0; i < FTReaderThread.MAX_ERRORS - 1; i++) {
+            mTransport.addInResult(-1);
+        }
+        mTransport.addIn(packet(0, 0, "ok"));
+        startReader(false);
+        assertTrue(mFailed.await(5, TimeUnit.SECONDS));
+        assertEquals(2 * FTReaderThread.MAX_ERRORS, mTransport.getInCalls());
+        assertEquals(2, mPort.available());
+        mPort.close();
+    }
+
+    // the listener may close the port on the reader thread
+    @Test
+    public void listenerClosesPort() throws Exception {
+        startReader(true);
+        assertTrue(mFailed.await(5, TimeUnit.SECONDS));
+        assertTrue(!mPort.isOpen());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// A capture recorded across several rotated files is played back whole.
+public class FTReplayTest {
+    private static final int PACKET_SIZE = 64;
+    private static final int PACKETS = 4;
+    private static final int RECORDS = 300;
+
+    @Rule
+    public TemporaryFolder mDir = new TemporaryFolder();
+
+    @Test
+    public void replaysAllRotatedFiles() throws Exception {
+        FTCapture capture = new FTCapture(mDir.getRoot(), "cap", 0, 10, 0);
+        capture.setPacketSize(PACKET_SIZE);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        byte[] transfer = new byte[PACKETS * PACKET_SIZE];
+        int n = 0;
+        for (int r = 0; r < RECORDS; r++) {
+            for (int p = 0; p < PACKETS; p++) {
+                int pos = p * PACKET_SIZE;
+                transfer[pos] = 0x01;
+                transfer[pos + 1] = 0x60;
+                for (int i = pos + 2; i < pos + PACKET_SIZE; i++) {
+                    transfer[i] = (byte) n++;
+                }
+                expected.write(transfer, pos + 2, PACKET_SIZE - 2);
+            }
+            capture.record(FTCapture.RX, transfer, 0, transfer.length);
+            // let the writer keep up, so no record is dropped
+            while (capture.getRecordCount() + capture.getDroppedCount() < r + 1) {
+                Thread.sleep(1);
+            }
+        }
+        capture.close();
+        assertEquals(RECORDS, capture.getRecordCount());
+        List<File> files = FTCaptureReader.listFiles(mDir.getRoot(), "cap");
+        assertTrue(files.size() + " files", files.size() >= 2);
+
+        FTReplay replay = new FTReplay(mDir.getRoot(), "cap", 0);
+        replay.start(2 * expected.size());
+        replay.join();
+        assertTrue(replay.isFinished());
+        ByteArrayOutputStream played = new ByteArrayOutputStream();
+        InputStream in = replay.getInputStream();
+        byte[] buf = new byte[4096];
+        int len;
+        while ((len = in.read(buf)) > 0) {
+            played.write(buf, 0, len);
+        }
+        replay.stop();
+        assertArrayEquals(expected.toByteArray(), played.toByteArray());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+// The producer writes a byte counter into a small DROP_OLDEST ring faster
+// than the consumer reads it, so the oldest bytes are dropped while the
+// consumer copies them. every read must return consecutive counter bytes,
+// no more than the capacity.
+public class FTRingBufferTest {
+    private static final int CAPACITY = 64;
+    private static final long DURATION_MILLIS = 500;
+
+    private final FTRingBuffer mRing = new FTRingBuffer(CAPACITY, FTRingBuffer.DROP_OLDEST);
+    private final AtomicBoolean mStop = new AtomicBoolean();
+
+    private Thread startProducer() {
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] chunk = new byte[CAPACITY - 16];
+                int n = 0;
+                while (!mStop.get()) {
+                    for (int i = 0; i < chunk.length; i++) {
+                        chunk[i] = (byte) n++;
+                    }
+                    mRing.write(chunk, 0, chunk.length);
+                }
+            }
+        });
+        producer.start();
+        return producer;
+    }
+
+    private static void assertConsecutive(byte[] buf, int offset, int len) {
+        assertTrue(len + " bytes", len <= CAPACITY);
+        for (int i = 1; i < len; i++) {
+            assertEquals((byte) (buf[offset + i - 1] + 1), buf[offset + i]);
+        }
+    }
+
+    @Test
+    public void readArrayWhileOverwritten() throws Exception {
+        Thread producer = startProducer();
+        byte[] buf = new byte[4 * CAPACITY];
+        long end = System.currentTimeMillis() + DURATION_MILLIS;
+        try {
+            while (System.currentTimeMillis() < end) {
+                // offset so that a too long copy overflows buf
+                int offset = buf.length - CAPACITY;
+                int len = mRing.read(buf, offset, buf.length - offset);
+                assertConsecutive(buf, offset, len);
+                assertTrue(mRing.available() <= CAPACITY);
+            }
+        } finally {
+            mStop.set(true);
+            mRing.close();
+            producer.join();
+        }
+        assertTrue(mRing.getDroppedCount() > 0);
+    }
+
+    @Test
+    public void readByteBufferWhileOverwritten() throws Exception {
+        Thread producer = startProducer();
+        ByteBuffer dst = ByteBuffer.allocate(4 * CAPACITY);
+        long end = System.currentTimeMillis() + DURATION_MILLIS;
+        try {
+            while (System.currentTimeMillis() < end) {
+                dst.clear();
+                int len = mRing.read(dst);
+                assertEquals(len, dst.position());
+                assertConsecutive(dst.array(), 0, len);
+            }
+        } finally {
+            mStop.set(true);
+            mRing.close();
+            producer.join();
+        }
+        assertTrue(mRing.getDroppedCount() > 0);
+    }
+}
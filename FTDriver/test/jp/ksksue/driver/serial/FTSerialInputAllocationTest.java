@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+// A steady-state read allocates nothing. measured with the allocated bytes
+// counter of the HotSpot ThreadMXBean.
+public class FTSerialInputAllocationTest {
+    private static final int WARMUP = 20000;
+    private static final int ROUNDS = 10000;
+    // the counter itself may allocate a little
+    private static final long SLACK = 1024;
+
+    private final FTSimulator mSim = new FTSimulator(FTChipType.FT232R, 4096);
+    private final FTSerialPort mPort = new FTSerialPort(mSim, "sim", 0, FTChipType.FT232R);
+    private final byte[] mPacket = new byte[62];
+    private final byte[] mBuf = new byte[62];
+    private com.sun.management.ThreadMXBean mThreads;
+
+    @Before
+    public void setUp() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        mThreads = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(mThreads.isThreadAllocatedMemorySupported());
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+        for (int i = 0; i < mPacket.length; i++) {
+            mPacket[i] = (byte) i;
+        }
+        mPort.open(115200);
+    }
+
+    private long allocated() {
+        return mThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private interface Reader {
+        int read() throws Exception;
+    }
+
+    // bytes allocated by ROUNDS packets, each injected and read
+    private long measure(Reader reader) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            mSim.inject(mPacket, 0, mPacket.length);
+            assertEquals(mPacket.length, reader.read());
+        }
+        long start = allocated();
+        for (int i = 0; i < ROUNDS; i++) {
+            mSim.inject(mPacket, 0, mPacket.length);
+            reader.read();
+        }
+        return allocated() - start;
+    }
+
+    @Test
+    public void readArray() throws Exception {
+        final InputStream in = mPort.getInputStream();
+        long bytes = measure(new Reader() {
+            @Override
+            public int read() throws Exception {
+                return in.read(mBuf, 0, mBuf.length);
+            }
+        });
+        assertTrue(bytes + " bytes allocated", bytes < SLACK);
+    }
+
+    @Test
+    public void readByte() throws Exception {
+        final InputStream in = mPort.getInputStream();
+        long bytes = measure(new Reader() {
+            @Override
+            public int read() throws Exception {
+                int n = 0;
+                while (n < mPacket.length && in.read() >= 0) {
+                    n++;
+                }
+                return n;
+            }
+        });
+        assertTrue(bytes + " bytes allocated", bytes < SLACK);
+    }
+
+    @Test
+    public void readDirectByteBuffer() throws Exception {
+        final ByteBuffer dst = ByteBuffer.allocateDirect(mPacket.length);
+        long bytes = measure(new Reader() {
+            @Override
+            public int read() throws Exception {
+                dst.clear();
+                return mPort.read(dst);
+            }
+        });
+        assertTrue(bytes + " bytes allocated", bytes < SLACK);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static jp.ksksue.driver.serial.ScriptedTransport.packet;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+// Multi-packet transfers with short, status-only and zero-length packets,
+// and short writes, against ScriptedTransport.
+public class FTSerialTransferTest {
+    private static final int PACKET_SIZE = 64;
+    private final ScriptedTransport mTransport = new ScriptedTransport(PACKET_SIZE);
+    private final FTSerialPort mPort = new FTSerialPort(mTransport, "fake", 0, FTChipType.FT232R);
+    private InputStream mIn;
+    private OutputStream mOut;
+
+    @Before
+    public void setUp() {
+        mPort.open(115200);
+        mPort.setReadTransferSize(4 * PACKET_SIZE);
+        mIn = mPort.getInputStream();
+        mOut = mPort.getOutputStream();
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private String read(int length) throws IOException {
+        byte[] buf = new byte[length];
+        int len = mIn.read(buf, 0, length);
+        return new String(buf, 0, Math.max(len, 0));
+    }
+
+    @Test
+    public void headerStrippedAtEveryPacket() throws Exception {
+        String a = repeat('a', 62);
+        String b = repeat('b', 62);
+        mTransport.addIn(packet(0, 0, a), packet(0, 0, b), packet(0, 0, "short"));
+        assertEquals(a + b + "short", read(200));
+    }
+
+    // a short packet ends the transfer, here one with only status bytes
+    @Test
+    public void statusOnlyPacketEndsTransfer() throws Exception {
+        String a = repeat('a', 62);
+        mTransport.addIn(packet(0, 0, a), packet(FTModemStatus.CTS, 0, ""));
+        assertEquals(a, read(200));
+        assertTrue(mPort.getModemStatus().isCts());
+    }
+
+    // the latency timer sends only status bytes: no data, not an error
+    @Test
+    public void statusOnlyTransfer() throws Exception {
+        mTransport.addIn(packet(FTModemStatus.DSR, 0, ""));
+        mTransport.addIn(packet(0, 0, "data"));
+        assertEquals("", read(10));
+        assertTrue(mPort.getModemStatus().isDsr());
+        assertEquals("data", read(10));
+        assertFalse(mPort.getModemStatus().isDsr());
+    }
+
+    @Test
+    public void zeroLengthTransfer() throws Exception {
+        mTransport.addInResult(0);
+        mTransport.addIn(packet(0, 0, "after"));
+        assertEquals("", read(10));
+        assertEquals("after", read(10));
+    }
+
+    // unread payload of a transfer is kept for the next read
+    @Test
+    public void partialReadKeepsRest() throws Exception {
+        mTransport.addIn(packet(0, 0, "0123456789"));
+        assertEquals("0123", read(4));
+        assertEquals('4', mIn.read());
+        assertEquals("56789", read(10));
+    }
+
+    @Test
+    public void shortWritesAreResent() throws Exception {
+        byte[] data = repeat('w', 1000).getBytes();
+        mTransport.addOut(100);
+        mTransport.addOut(0);
+        mTransport.addOut(300);
+        mOut.write(data, 0, data.length);
+        assertArrayEquals(data, mTransport.getSent());
+        assertEquals(4, mTransport.getOutCalls());
+    }
+
+    @Test
+    public void writeWhichSendsNothingFails() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            mTransport.addOut(0);
+        }
+        try {
+            mOut.write(new byte[10], 0, 10);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void writeErrorFails() throws Exception {
+        mTransport.addOut(-1);
+        try {
+            mOut.write(new byte[10], 0, 10);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
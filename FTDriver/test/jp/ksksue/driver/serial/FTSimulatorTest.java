@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FTSimulatorTest {
+    private static final int FIFO_SIZE = 256;
+    private final FTSimulator mSim = new FTSimulator(FTChipType.FT232R, FIFO_SIZE);
+
+    private void setFlowControl(int flowControl) {
+        mSim.controlTransfer(0x40, 0x02, (0x13 << 8) | 0x11, flowControl, null, 0, 0);
+    }
+
+    @Test
+    public void bulkOutWaitsForCts() throws Exception {
+        setFlowControl(FTSerialPort.FLOW_RTS_CTS);
+        byte[] data = "abc".getBytes();
+        assertEquals(-1, mSim.bulkOut(data, 0, data.length, 20));
+        Thread cts = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                mSim.setModemStatus(FTModemStatus.CTS);
+            }
+        };
+        cts.start();
+        long start = System.nanoTime();
+        assertEquals(3, mSim.bulkOut(data, 0, data.length, 0));
+        assertTrue(System.nanoTime() - start > 20000000L);
+        assertEquals(3, mSim.getTransmitted().available());
+        cts.join();
+    }
+
+    @Test
+    public void overrunWithoutFlowControl() {
+        byte[] data = new byte[FIFO_SIZE + 10];
+        assertEquals(FIFO_SIZE, mSim.inject(data, 0, data.length));
+        assertEquals(1, mSim.getOverrunCount());
+    }
+
+    // the device waits while RTS is off instead of overrunning
+    @Test
+    public void rtsStopsDevice() throws Exception {
+        setFlowControl(FTSerialPort.FLOW_RTS_CTS);
+        final byte[] data = new byte[FIFO_SIZE * 4];
+        final int[] sent = new int[1];
+        Thread device = new Thread() {
+            @Override
+            public void run() {
+                sent[0] = mSim.inject(data, 0, data.length);
+            }
+        };
+        device.start();
+        byte[] buf = new byte[64];
+        int received = 0;
+        boolean sawRtsOff = false;
+        while (received < data.length) {
+            Thread.sleep(1);
+            sawRtsOff |= !mSim.getRts();
+            int len = mSim.bulkIn(buf, buf.length, 1000);
+            assertTrue(len >= 2);
+            received += len - 2;
+        }
+        device.join();
+        assertEquals(data.length, sent[0]);
+        assertTrue(sawRtsOff);
+        assertTrue(mSim.getRxStopCount() > 0);
+        assertEquals(0, mSim.getOverrunCount());
+        assertFalse(mSim.isRxStopped());
+    }
+
+    @Test
+    public void xoffSentWhenFull() {
+        setFlowControl(FTSerialPort.FLOW_XON_XOFF);
+        byte[] data = new byte[FIFO_SIZE * 3 / 4];
+        assertEquals(data.length, mSim.inject(data, 0, data.length));
+        assertTrue(mSim.isRxStopped());
+        byte[] buf = new byte[4096];
+        while (mSim.getFifoLength() > 0) {
+            mSim.bulkIn(buf, buf.length, 100);
+        }
+        assertFalse(mSim.isRxStopped());
+        FTRingBuffer tx = mSim.getTransmitted();
+        byte[] flow = new byte[2];
+        assertEquals(2, tx.read(flow, 0, 2));
+        assertEquals(0x13, flow[0]);
+        assertEquals(0x11, flow[1]);
+    }
+
+    // XOFF from the device stops bulk OUT until XON
+    @Test
+    public void xoffStopsBulkOut() {
+        setFlowControl(FTSerialPort.FLOW_XON_XOFF);
+        byte[] data = "x".getBytes();
+        mSim.inject(new byte[] { 0x13 }, 0, 1);
+        assertEquals(-1, mSim.bulkOut(data, 0, 1, 10));
+        mSim.inject(new byte[] { 0x11 }, 0, 1);
+        assertEquals(1, mSim.bulkOut(data, 0, 1, 10));
+        assertEquals(0, mSim.getFifoLength());
+    }
+}
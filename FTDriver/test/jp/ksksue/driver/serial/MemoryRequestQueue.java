@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * FTRequestQueue in memory: a queued request is completed by a bulk IN
+ * transfer on the transport of its port (e.g. FTSimulator), the queued
+ * requests taken in turn. Completions of requests of another queue on the
+ * same connection can be added with addForeign().
+ */
+class MemoryRequestQueue implements FTRequestQueue {
+    // bulk IN timeout of each try, so that cancel is seen soon
+    private static final int POLL_MILLIS = 5;
+
+    private static class Request {
+        final FTTransport mTransport;
+        final byte[] mData;
+        ByteBuffer mBuffer;
+        int mLength;
+        boolean mQueued;
+        boolean mCancelled;
+        int mCancelCount;
+
+        Request(FTTransport transport) {
+            mTransport = transport;
+            mData = new byte[FTSerialInput.MAX_TRANSFER_SIZE];
+        }
+    }
+
+    private final List<Request> mRequests = new ArrayList<Request>();
+    private int mNext;
+    private int mForeign;
+    private boolean mClosed;
+    private boolean mFailAdd;
+
+    // The next count requestWait calls return UNKNOWN_REQUEST.
+    synchronized void addForeign(int count) {
+        mForeign += count;
+    }
+
+    // addRequests throws like a UsbRequest which failed to initialize
+    synchronized void setFailAdd(boolean fail) {
+        mFailAdd = fail;
+    }
+
+    // Number of times request id was cancelled
+    synchronized int getCancelCount(int id) {
+        return mRequests.get(id).mCancelCount;
+    }
+
+    synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    @Override
+    public synchronized int getRequestCount() {
+        return mRequests.size();
+    }
+
+    @Override
+    public synchronized int addRequests(FTSerialPort port, int count) {
+        if (mFailAdd) {
+            throw new IllegalArgumentException("failed to initialize request");
+        }
+        int first = mRequests.size();
+        for (int i = 0; i < count; i++) {
+            mRequests.add(new Request(port.getTransport()));
+        }
+        return first;
+    }
+
+    @Override
+    public synchronized boolean queue(int id, ByteBuffer buffer, int length) {
+        Request r = mRequests.get(id);
+        if (mClosed || r.mQueued) {
+            return false;
+        }
+        buffer.clear();
+        r.mBuffer = buffer;
+        r.mLength = Math.min(length, buffer.capacity());
+        r.mQueued = true;
+        r.mCancelled = false;
+        return true;
+    }
+
+    @Override
+    public int requestWait() {
+        for (;;) {
+            int id;
+            Request r;
+            synchronized (this) {
+                if (mForeign > 0) {
+                    mForeign--;
+                    return UNKNOWN_REQUEST;
+                }
+                id = -1;
+                for (int i = 0; i < mRequests.size(); i++) {
+                    Request c = mRequests.get(i);
+                    if (c.mQueued && c.mCancelled) {
+                        c.mQueued = false;
+                        return i;
+                    }
+                    if (c.mQueued && id < 0 && i >= mNext) {
+                        id = i;
+                    }
+                }
+                if (id < 0) {
+                    for (int i = 0; i < mNext && i < mRequests.size() && id < 0; i++) {
+                        if (mRequests.get(i).mQueued) {
+                            id = i;
+                        }
+                    }
+                }
+                if (id < 0) {
+                    return -1;
+                }
+                mNext = id + 1;
+                r = mRequests.get(id);
+            }
+            int len = r.mTransport.bulkIn(r.mData, r.mLength, POLL_MILLIS);
+            synchronized (this) {
+                if (r.mQueued && (len > 0 || r.mCancelled)) {
+                    r.mQueued = false;
+                    if (len > 0) {
+                        r.mBuffer.put(r.mData, 0, len);
+                    }
+                    return id;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void cancel(int id) {
+        Request r = mRequests.get(id);
+        r.mCancelled = true;
+        r.mCancelCount++;
+    }
+
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        mRequests.clear();
+    }
+}
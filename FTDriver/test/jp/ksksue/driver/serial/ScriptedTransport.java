@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.serial;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/*
+ * FTTransport which plays scripted results: each bulk IN returns the next
+ * added transfer (concatenated FTDI packets) or result code, each bulk OUT
+ * accepts the next added number of bytes. -1 when the script is used up;
+ * bulk OUT accepts everything when none was added.
+ */
+class ScriptedTransport implements FTTransport {
+    private final int mPacketSize;
+    private final Queue<byte[]> mIn = new ArrayDeque<byte[]>();
+    private final Queue<Integer> mOut = new ArrayDeque<Integer>();
+    private final ByteArrayOutputStream mSent = new ByteArrayOutputStream();
+    private int mOutCalls;
+    private int mInCalls;
+
+    ScriptedTransport(int packetSize) {
+        mPacketSize = packetSize;
+    }
+
+    // Packet with modem and line status bytes followed by payload
+    static byte[] packet(int modem, int line, String payload) {
+        byte[] p = new byte[2 + payload.length()];
+        p[0] = (byte) (modem | 0x01);
+        p[1] = (byte) (line | 0x60);
+        System.arraycopy(payload.getBytes(), 0, p, 2, payload.length());
+        return p;
+    }
+
+    // One transfer of packets; all but the last must be of the packet size.
+    synchronized void addIn(byte[]... packets) {
+        ByteArrayOutputStream transfer = new ByteArrayOutputStream();
+        for (byte[] p : packets) {
+            transfer.write(p, 0, p.length);
+        }
+        mIn.add(transfer.toByteArray());
+    }
+
+    // bulk IN returns length without data (0 or -1)
+    synchronized void addInResult(int length) {
+        mIn.add(new byte[0]);
+        mIn.add(new byte[] { (byte) length });
+    }
+
+    void addOut(int accepted) {
+        mOut.add(accepted);
+    }
+
+    byte[] getSent() {
+        return mSent.toByteArray();
+    }
+
+    int getOutCalls() {
+        return mOutCalls;
+    }
+
+    synchronized int getInCalls() {
+        return mInCalls;
+    }
+
+    @Override
+    public int getPacketSize() {
+        return mPacketSize;
+    }
+
+    @Override
+    public synchronized int bulkIn(byte[] buffer, int length, int timeout) {
+        mInCalls++;
+        byte[] transfer = mIn.poll();
+        if (transfer == null) {
+            return -1;
+        }
+        if (transfer.length == 0) {
+            return mIn.poll()[0];
+        }
+        if (transfer.length > length) {
+            throw new IllegalStateException("transfer of " + transfer.length + " bytes, asked " + length);
+        }
+        System.arraycopy(transfer, 0, buffer, 0, transfer.length);
+        return transfer.length;
+    }
+
+    @Override
+    public int bulkOut(byte[] buffer, int offset, int length, int timeout) {
+        mOutCalls++;
+        Integer accepted = mOut.poll();
+        int len = (accepted == null)? length : Math.min(accepted, length);
+        if (len > 0) {
+            mSent.write(buffer, offset, len);
+        }
+        return len;
+    }
+
+    @Override
+    public int controlTransfer(int requestType, int request, int value, int index,
+            byte[] buffer, int length, int timeout) {
+        return 0;
+    }
+
+    @Override
+    public boolean claim() {
+        return true;
+    }
+
+    @Override
+    public void release() {
+    }
+}
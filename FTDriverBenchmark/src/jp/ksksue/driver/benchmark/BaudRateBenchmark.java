@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import jp.ksksue.driver.serial.FTBaudRate;
+import jp.ksksue.driver.serial.FTChipType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Divisor search done by FTSerialPort.open().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BaudRateBenchmark {
+    @Param({ "FT232R", "FT2232H" })
+    public FTChipType chipType;
+
+    @Param({ "9600", "115200", "921600", "3000000" })
+    public int baudrate;
+
+    @Benchmark
+    public FTBaudRate calculate() {
+        return FTBaudRate.calculate(baudrate, chipType);
+    }
+}
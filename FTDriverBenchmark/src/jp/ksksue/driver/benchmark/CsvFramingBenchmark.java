@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.benchmark;
+
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+
+import jp.ksksue.driver.serial.FTCsvDecoder;
+import jp.ksksue.driver.serial.FTCsvRecord;
+import jp.ksksue.driver.serial.FTDelimiterFramer;
+import jp.ksksue.driver.serial.FTFrameListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Line framing and CSV decoding of the FTSerialCSV sample, compared with
+ * the StringTokenizer parsing it used before. One operation is one
+ * buffer of LINES lines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CsvFramingBenchmark {
+    private static final int LINES = 1000;
+    private static final String LINE = "25.3,48.1,512,0,1,0,0,1,12:34:56\r\n";
+
+    private byte[] mData;
+    private FTDelimiterFramer mFramer;
+    private FTCsvDecoder mDecoder;
+    private FTCsvRecord mRecord;
+    private Blackhole mBlackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        mBlackhole = blackhole;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            sb.append(LINE);
+        }
+        mData = sb.toString().getBytes();
+        // schema of GenetCsvSchema in FTSerialCSV
+        mDecoder = new FTCsvDecoder(',',
+                FTCsvDecoder.DECIMAL, FTCsvDecoder.DECIMAL, FTCsvDecoder.DECIMAL,
+                FTCsvDecoder.INTEGER, FTCsvDecoder.INTEGER, FTCsvDecoder.INTEGER,
+                FTCsvDecoder.INTEGER, FTCsvDecoder.INTEGER, FTCsvDecoder.TEXT);
+        mRecord = mDecoder.newRecord();
+        mFramer = new FTDelimiterFramer('\n', 256, new FTFrameListener() {
+            @Override
+            public void onFrame(byte[] frame, int offset, int length) {
+                if (mDecoder.decode(frame, offset, length, mRecord)) {
+                    mBlackhole.consume(mRecord.getDouble(0));
+                    mBlackhole.consume(mRecord.getInt(3));
+                }
+            }
+        });
+    }
+
+    @Benchmark
+    public void framerAndDecoder() {
+        mFramer.decode(mData, 0, mData.length);
+    }
+
+    @Benchmark
+    public void stringTokenizer(Blackhole blackhole) {
+        String text = new String(mData);
+        StringTokenizer lines = new StringTokenizer(text, "\n");
+        while (lines.hasMoreTokens()) {
+            StringTokenizer st = new StringTokenizer(lines.nextToken().trim(), ",");
+            blackhole.consume(Float.parseFloat(st.nextToken()));
+            st.nextToken();
+            st.nextToken();
+            blackhole.consume(Integer.parseInt(st.nextToken()));
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import jp.ksksue.driver.serial.FTCobsFramer;
+import jp.ksksue.driver.serial.FTDelimiterFramer;
+import jp.ksksue.driver.serial.FTFrameListener;
+import jp.ksksue.driver.serial.FTFramer;
+import jp.ksksue.driver.serial.FTLengthFramer;
+import jp.ksksue.driver.serial.FTSlipFramer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Decoding FRAMES encoded frames of frameSize random bytes, fed to the
+ * framer in 62-byte pieces as they come out of 64-byte USB packets, so
+ * frames are split at arbitrary points. One operation is all frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FramerBenchmark {
+    private static final int FRAMES = 1000;
+    private static final int PIECE = 62;
+
+    @Param({ "delimiter", "length", "slip", "cobs" })
+    public String framer;
+
+    @Param({ "16", "200" })
+    public int frameSize;
+
+    private byte[] mData;
+    private int mDataLen;
+    private FTFramer mFramer;
+    private Blackhole mBlackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        mBlackhole = blackhole;
+        FTFrameListener listener = new FTFrameListener() {
+            @Override
+            public void onFrame(byte[] frame, int offset, int length) {
+                mBlackhole.consume(frame[offset]);
+            }
+        };
+        int maxEncoded = FTSlipFramer.maxEncodedLength(frameSize) + FTCobsFramer.maxEncodedLength(frameSize);
+        mData = new byte[FRAMES * maxEncoded];
+        byte[] frame = new byte[frameSize];
+        Random random = new Random(1);
+        for (int i = 0; i < FRAMES; i++) {
+            random.nextBytes(frame);
+            if (framer.equals("delimiter")) {
+                for (int j = 0; j < frameSize; j++) {
+                    if (frame[j] == '\n') {
+                        frame[j] = ' ';
+                    }
+                }
+                mDataLen += FTDelimiterFramer.encode(frame, 0, frameSize, mData, mDataLen, '\n');
+            } else if (framer.equals("length")) {
+                mDataLen += FTLengthFramer.encode(frame, 0, frameSize, mData, mDataLen, 1);
+            } else if (framer.equals("slip")) {
+                mDataLen += FTSlipFramer.encode(frame, 0, frameSize, mData, mDataLen);
+            } else {
+                mDataLen += FTCobsFramer.encode(frame, 0, frameSize, mData, mDataLen);
+            }
+        }
+        int maxFrameSize = frameSize + 1;
+        if (framer.equals("delimiter")) {
+            mFramer = new FTDelimiterFramer('\n', maxFrameSize, listener);
+        } else if (framer.equals("length")) {
+            mFramer = new FTLengthFramer(1, maxFrameSize, listener);
+        } else if (framer.equals("slip")) {
+            mFramer = new FTSlipFramer(maxFrameSize, listener);
+        } else {
+            mFramer = new FTCobsFramer(maxFrameSize, listener);
+        }
+        decodeAll();
+        if (mFramer.getFrameCount() != FRAMES || mFramer.getErrorCount() != 0) {
+            throw new IllegalStateException(framer + ": " + mFramer.getFrameCount()
+                    + " frames, " + mFramer.getErrorCount() + " errors");
+        }
+    }
+
+    private void decodeAll() {
+        for (int pos = 0; pos < mDataLen; pos += PIECE) {
+            mFramer.decode(mData, pos, Math.min(PIECE, mDataLen - pos));
+        }
+    }
+
+    @Benchmark
+    public void decode() {
+        decodeAll();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.benchmark;
+
+import java.util.Arrays;
+
+import jp.ksksue.driver.serial.FTTransport;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * FTTransport standing in for the USB connection: bulk IN returns full
+ * packets of payload at once, bulk OUT and control requests are discarded.
+ * A bulk OUT can be given a cost in Blackhole.consumeCPU tokens, standing
+ * in for the system call and USB transaction of each transfer.
+ */
+class MemoryTransport implements FTTransport {
+    private final int mPacketSize;
+    // 16KB of packets: 2 status bytes and packetSize - 2 bytes of 'x'
+    private final byte[] mPackets;
+    private final long mTransferCost;
+    private long mBytesOut;
+    private long mTransfersOut;
+
+    MemoryTransport(int packetSize) {
+        this(packetSize, 0);
+    }
+
+    MemoryTransport(int packetSize, long transferCost) {
+        mPacketSize = packetSize;
+        mTransferCost = transferCost;
+        mPackets = new byte[16384];
+        Arrays.fill(mPackets, (byte) 'x');
+        for (int i = 0; i < mPackets.length; i += packetSize) {
+            mPackets[i] = 0x11;
+            mPackets[i + 1] = 0x60;
+        }
+    }
+
+    @Override
+    public int getPacketSize() {
+        return mPacketSize;
+    }
+
+    @Override
+    public int bulkIn(byte[] buffer, int length, int timeout) {
+        int len = Math.min(length, mPackets.length);
+        System.arraycopy(mPackets, 0, buffer, 0, len);
+        return len;
+    }
+
+    @Override
+    public int bulkOut(byte[] buffer, int offset, int length, int timeout) {
+        if (mTransferCost > 0) {
+            Blackhole.consumeCPU(mTransferCost);
+        }
+        mBytesOut += length;
+        mTransfersOut++;
+        return length;
+    }
+
+    @Override
+    public int controlTransfer(int requestType, int request, int value, int index,
+            byte[] buffer, int length, int timeout) {
+        return 0;
+    }
+
+    @Override
+    public boolean claim() {
+        return true;
+    }
+
+    @Override
+    public void release() {
+    }
+
+    long getBytesOut() {
+        return mBytesOut;
+    }
+
+    long getTransfersOut() {
+        return mTransfersOut;
+    }
+}
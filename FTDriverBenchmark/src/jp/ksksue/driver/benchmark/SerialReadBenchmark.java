@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import jp.ksksue.driver.serial.FTChipType;
+import jp.ksksue.driver.serial.FTSerialPort;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * Reading payloadSize bytes through the input path of a port:
+ * bulk IN, status byte stripping and copying to the caller.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerialReadBenchmark {
+    @Param({ "64", "512" })
+    public int packetSize;
+
+    @Param({ "1", "64", "1024", "16384", "65536" })
+    public int payloadSize;
+
+    private FTSerialPort mPort;
+    private InputStream mIn;
+    private byte[] mBuf;
+    private ByteBuffer mDirectBuf;
+
+    @Setup
+    public void setUp() {
+        FTChipType chipType = (packetSize == 64)? FTChipType.FT232R : FTChipType.FT2232H;
+        mPort = new FTSerialPort(new MemoryTransport(packetSize), "bench", 0, chipType);
+        mPort.open(115200);
+        mPort.setReadTransferSize(16384);
+        mIn = mPort.getInputStream();
+        mBuf = new byte[payloadSize];
+        mDirectBuf = ByteBuffer.allocateDirect(payloadSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPort.close();
+    }
+
+    @Benchmark
+    public int readArray() throws IOException {
+        int len = 0;
+        while (len < mBuf.length) {
+            len += mIn.read(mBuf, len, mBuf.length - len);
+        }
+        return len;
+    }
+
+    @Benchmark
+    public int readByteBuffer() throws IOException {
+        mDirectBuf.clear();
+        while (mDirectBuf.hasRemaining()) {
+            mPort.read(mDirectBuf);
+        }
+        return mDirectBuf.position();
+    }
+}
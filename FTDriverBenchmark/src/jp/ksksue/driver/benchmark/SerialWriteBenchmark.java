@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import jp.ksksue.driver.serial.FTChipType;
+import jp.ksksue.driver.serial.FTSerialPort;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * Writing payloadSize bytes through the output path of a port:
+ * splitting into transfers and bulk OUT.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerialWriteBenchmark {
+    @Param({ "64", "512" })
+    public int packetSize;
+
+    @Param({ "1", "64", "1024", "16384", "65536" })
+    public int payloadSize;
+
+    private FTSerialPort mPort;
+    private OutputStream mOut;
+    private byte[] mBuf;
+    private ByteBuffer mDirectBuf;
+
+    @Setup
+    public void setUp() {
+        FTChipType chipType = (packetSize == 64)? FTChipType.FT232R : FTChipType.FT2232H;
+        mPort = new FTSerialPort(new MemoryTransport(packetSize), "bench", 0, chipType);
+        mPort.open(115200);
+        mOut = mPort.getOutputStream();
+        mBuf = new byte[payloadSize];
+        mDirectBuf = ByteBuffer.allocateDirect(payloadSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPort.close();
+    }
+
+    @Benchmark
+    public void writeArray() throws IOException {
+        mOut.write(mBuf, 0, mBuf.length);
+    }
+
+    @Benchmark
+    public int writeByteBuffer() throws IOException {
+        mDirectBuf.clear();
+        return mPort.write(mDirectBuf);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+package jp.ksksue.driver.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import jp.ksksue.driver.serial.FTChipType;
+import jp.ksksue.driver.serial.FTSerialPort;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * MESSAGE bytes written as writeSize-byte writes and flushed, with write
+ * coalescing off (threshold 0) or gathering up to threshold bytes per
+ * transfer. Each bulk OUT costs TRANSFER_COST tokens, about a microsecond,
+ * so the score shows what fewer transfers save. "transfers" is bulk OUT
+ * per ms; divided by the score it gives the transfers per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WriteCoalescingBenchmark {
+    private static final int MESSAGE = 4096;
+    private static final long TRANSFER_COST = 250;
+
+    @Param({ "1", "16", "64" })
+    public int writeSize;
+
+    @Param({ "0", "512", "4096" })
+    public int threshold;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long transfers;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            transfers = 0;
+        }
+    }
+
+    private MemoryTransport mTransport;
+    private FTSerialPort mPort;
+    private OutputStream mOut;
+    private byte[] mBuf;
+
+    @Setup
+    public void setUp() throws IOException {
+        mTransport = new MemoryTransport(64, TRANSFER_COST);
+        mPort = new FTSerialPort(mTransport, "bench", 0, FTChipType.FT232R);
+        mPort.open(115200);
+        mPort.setWriteCoalescing(threshold, 0);
+        mOut = mPort.getOutputStream();
+        mBuf = new byte[writeSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPort.close();
+    }
+
+    @Benchmark
+    public void writeMessage(Counters counters) throws IOException {
+        long before = mTransport.getTransfersOut();
+        for (int i = 0; i < MESSAGE; i += writeSize) {
+            mOut.write(mBuf, 0, writeSize);
+        }
+        mOut.flush();
+        counters.transfers += mTransport.getTransfersOut() - before;
+    }
+}
@@ -5,9 +5,6 @@ package jp.ksksue.sample;
  * http://www.apache.org/licenses/LICENSE-2.0
  */
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import jp.ksksue.serial.R;
 import android.app.Activity;
 import android.content.BroadcastReceiver;
@@ -32,15 +29,14 @@ public class FTSampleTerminalActivity extends Activity {
     
     private FTDriver mSerial;
     private FTSerialPort mPort = null;
-    private InputStream mIn;
-    private OutputStream mOut;
 
-    private TextView mTvSerial;
-    private String mText;
+    private TerminalView mTvSerial;
+    private TextView mTvDropped;
     private Spinner mPortSelector;
-    private boolean mStop = false;
+    private SerialUiBridge mBridge;
     
     private final int DEFAULT_BAUD = FTDriver.BAUD9600;
+    private static final int BRIDGE_BUFFER_SIZE = 65536;
     
     private static final String TAG = FTSampleTerminalActivity.class.getSimpleName();
     
@@ -55,7 +51,8 @@ public class FTSampleTerminalActivity extends Activity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
 
-        mTvSerial = (TextView) findViewById(R.id.tvSerial);
+        mTvSerial = (TerminalView) findViewById(R.id.tvSerial);
+        mTvDropped = (TextView) findViewById(R.id.tvDropped);
         mPortSelector = (Spinner) findViewById(R.id.portSelector);
         btWrite = (Button) findViewById(R.id.btWrite);
         etWrite = (EditText) findViewById(R.id.etWrite);
@@ -86,12 +83,9 @@ public class FTSampleTerminalActivity extends Activity {
             @Override
             public void onClick(View v) {
                 String strWrite = etWrite.getText().toString() + "\n";
-                try {
-                    mOut.write(strWrite.getBytes());
-                } catch (IOException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
+                byte[] wbuf = strWrite.getBytes();
+                // don't block UI thread by USB transfer.
+                mPort.writeAsync(wbuf, 0, wbuf.length, null);
             }
         });
         
@@ -133,89 +127,45 @@ public class FTSampleTerminalActivity extends Activity {
     
     @Override
     public void onDestroy() {
+        stopMainloop();
         mSerial.end();
-        mStop = true;
         unregisterReceiver(mUsbReceiver);
         super.onDestroy();
     }
 
-    private Thread mLoop;
-    
     private void startMainloop() {
         if (mPort == null){
             return;
         }
         mPort.open(DEFAULT_BAUD);
-        mIn = mPort.getInputStream();
-        mOut = mPort.getOutputStream();
-        mStop = false;
-        mLoop = new Thread(new Runnable() {
+        mTvDropped.setVisibility(View.GONE);
+        // data received between display frames is shown at once
+        mBridge = new SerialUiBridge(BRIDGE_BUFFER_SIZE, new SerialUiBridge.Sink() {
             @Override
-            public void run() {
-                byte[] rbuf = new byte[100];
-                
-                while (true) {
+            public void onOutput(byte[] data, int length) {
+                mTvSerial.append(data, length);
+            }
 
-                    //////////////////////////////////////////////////////////
-                    // Read and Display to Terminal
-                    //////////////////////////////////////////////////////////
-                    int len = 0;
-                    try {
-                        len = mIn.read(rbuf);
-                    } catch (IOException e1) {
-                        // TODO Auto-generated catch block
-                        e1.printStackTrace();
-                    }
-                    if(len > 0) {
-                        //Log.i(TAG,"Read  Length : "+len);
-                        mText = "";
-                        for(int i=0; i<len; ++i) {
-                            //Log.i(TAG,"Read  Data["+i+"] : "+rbuf[i]);
-                            
-                            // "\r":CR(0x0D) "\n":LF(0x0A)
-                            if (rbuf[i] == 0x0D) {
-                                mText = mText + "\r";
-                            } else if (rbuf[i] == 0x0A) {
-                                mText = mText + "\n";
-                            } else {
-                                mText = mText + "" +(char)rbuf[i];
-                            }
-                        }
-                        mHandler.post(new Runnable() {
-                            public void run() {
-                                mTvSerial.append(mText);
-                            }
-                        });
-                    }
-                    
-                    try {
-                        Thread.sleep(50);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    
-                    if(mStop) {
-                        return;
-                    }
-                }
+            @Override
+            public void onDropped(long dropped) {
+                mTvDropped.setText(getString(R.string.dropped, dropped));
+                mTvDropped.setVisibility(View.VISIBLE);
             }
         });
-        mLoop.start();
+        mPort.setDataListener(mBridge);
     }
     
     private void stopMainloop() {
         if (mPort == null) {
             return;
         }
-        mStop = true;
-        try {
-            mLoop.join();
-            mPort.close();
-            Log.d(TAG, "Thread stopped.");
-        } catch (InterruptedException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+        mPort.setDataListener(null);
+        if (mBridge != null) {
+            mBridge.close();
+            mBridge = null;
         }
+        mPort.close();
+        Log.d(TAG, "Port closed.");
     }
     
     // BroadcastReceiver when insert/remove the device USB plug into/from a USB port  
@@ -0,0 +1,124 @@
+package jp.ksksue.sample;
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.view.Choreographer;
+import jp.ksksue.driver.serial.FTDataListener;
+import jp.ksksue.driver.serial.FTRingBuffer;
+
+/*
+ * Passes received data to the UI at most once per display frame.
+ * The reader thread stores data in a lock-free ring buffer and asks for
+ * a frame; on the frame the UI thread takes everything stored so far.
+ * The reader never waits for the UI, so a slow frame does not stop bulk IN
+ * and overrun the chip: when the UI falls behind by the buffer size the
+ * oldest bytes are dropped, and the Sink is told how many.
+ * Construct on the UI thread, and close() before closing the port.
+ */
+public class SerialUiBridge implements FTDataListener {
+    // receives the data of a frame on the UI thread
+    public interface Sink {
+        // data is reused after return
+        void onOutput(byte[] data, int length);
+
+        // total bytes dropped since the UI fell behind, called when it grows
+        void onDropped(long dropped);
+    }
+
+    // frame period when Choreographer is not available (API 15 and below)
+    private static final long FRAME_MILLIS = 16;
+
+    private final FTRingBuffer mRing;
+    private final byte[] mFrameBuf;
+    private final Sink mSink;
+    private final AtomicBoolean mFramePending = new AtomicBoolean();
+    private final FrameScheduler mScheduler;
+    // UI thread only
+    private long mReportedDropped;
+
+    public SerialUiBridge(int bufferSize, Sink sink) {
+        mRing = new FTRingBuffer(bufferSize, FTRingBuffer.DROP_OLDEST);
+        mFrameBuf = new byte[mRing.capacity()];
+        mSink = sink;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mScheduler = new ChoreographerScheduler();
+        } else {
+            mScheduler = new HandlerScheduler();
+        }
+    }
+
+    // Called on the reader thread.
+    @Override
+    public void onDataReceived(byte[] data, int length) {
+        mRing.write(data, 0, length);
+        if (mFramePending.compareAndSet(false, true)) {
+            mScheduler.schedule();
+        }
+    }
+
+    // Stop taking data.
+    public void close() {
+        mRing.close();
+    }
+
+    // Called on the UI thread once per frame.
+    private void doFrame() {
+        mFramePending.set(false);
+        int len = mRing.read(mFrameBuf, 0, mFrameBuf.length);
+        if (len > 0) {
+            mSink.onOutput(mFrameBuf, len);
+        }
+        long dropped = mRing.getDroppedCount();
+        if (dropped != mReportedDropped) {
+            mReportedDropped = dropped;
+            mSink.onDropped(dropped);
+        }
+    }
+
+    // Total bytes dropped since the UI fell behind
+    public long getDroppedCount() {
+        return mRing.getDroppedCount();
+    }
+
+    private interface FrameScheduler {
+        void schedule();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class ChoreographerScheduler implements FrameScheduler, Choreographer.FrameCallback {
+        // thread-local instance of the UI thread; posting is thread-safe
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+
+        @Override
+        public void schedule() {
+            mChoreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            SerialUiBridge.this.doFrame();
+        }
+    }
+
+    private class HandlerScheduler implements FrameScheduler, Runnable {
+        private final Handler mHandler = new Handler();
+
+        @Override
+        public void schedule() {
+            mHandler.postDelayed(this, FRAME_MILLIS);
+        }
+
+        @Override
+        public void run() {
+            doFrame();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package jp.ksksue.sample;
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+/*
+ * Scrollback of the terminal: received characters in a fixed ring,
+ * split into lines. LF, CR and CR LF end a line, and a line longer than
+ * the column limit is wrapped. When the character or line limit is reached
+ * the oldest lines are dropped, so memory and the cost of an append stay
+ * the same however long the session runs.
+ * Used on the UI thread only.
+ */
+public class TerminalBuffer {
+    private static final int DEFAULT_COLUMNS = 256;
+
+    private final char[] mChars;
+    private final int mColumns;
+    // CR ended the line, a following LF belongs to it
+    private boolean mAfterCr;
+    // absolute positions of the first and next character
+    private long mStart;
+    private long mEnd;
+    // start positions of the lines, a ring of mLineStarts.length.
+    // the last line is the one being received.
+    private final long[] mLineStarts;
+    private int mFirstLine;
+    private int mLineCount;
+
+    public TerminalBuffer(int maxChars, int maxLines) {
+        this(maxChars, maxLines, DEFAULT_COLUMNS);
+    }
+
+    // lines are wrapped at columns characters
+    public TerminalBuffer(int maxChars, int maxLines, int columns) {
+        mChars = new char[maxChars];
+        mLineStarts = new long[maxLines];
+        mColumns = Math.min(columns, maxChars);
+        mLineCount = 1;
+    }
+
+    // Append received bytes.
+    public void append(byte[] data, int length) {
+        for (int i = 0; i < length; i++) {
+            char c = (char) (data[i] & 0xff);
+            if (c == '\r' || c == '\n') {
+                if (c == '\r' || !mAfterCr) {
+                    newLine();
+                }
+                mAfterCr = (c == '\r');
+                continue;
+            }
+            mAfterCr = false;
+            if (mEnd - lineStart(mLineCount - 1) == mColumns) {
+                newLine();
+            }
+            if (mEnd - mStart == mChars.length) {
+                makeRoom();
+            }
+            mChars[(int) (mEnd % mChars.length)] = c;
+            mEnd++;
+        }
+    }
+
+    public void clear() {
+        mStart = mEnd;
+        mFirstLine = 0;
+        mLineCount = 1;
+        mLineStarts[0] = mEnd;
+        mAfterCr = false;
+    }
+
+    public int getLineCount() {
+        return mLineCount;
+    }
+
+    public int getLineLength(int line) {
+        return (int) (lineEnd(line) - lineStart(line));
+    }
+
+    // Copy up to dst.length characters from the start of line to dst,
+    // e.g. the columns on screen. returns the length copied.
+    public int getLine(int line, char[] dst) {
+        long start = lineStart(line);
+        int len = (int) Math.min(lineEnd(line) - start, dst.length);
+        int pos = (int) (start % mChars.length);
+        int first = Math.min(len, mChars.length - pos);
+        System.arraycopy(mChars, pos, dst, 0, first);
+        System.arraycopy(mChars, 0, dst, first, len - first);
+        return len;
+    }
+
+    public int getMaxChars() {
+        return mChars.length;
+    }
+
+    // length at which lines are wrapped
+    public int getColumns() {
+        return mColumns;
+    }
+
+    private long lineStart(int line) {
+        return mLineStarts[(mFirstLine + line) % mLineStarts.length];
+    }
+
+    private long lineEnd(int line) {
+        return (line + 1 < mLineCount)? lineStart(line + 1) : mEnd;
+    }
+
+    private void newLine() {
+        if (mLineCount == mLineStarts.length) {
+            dropFirstLine();
+        }
+        mLineStarts[(mFirstLine + mLineCount) % mLineStarts.length] = mEnd;
+        mLineCount++;
+    }
+
+    private void dropFirstLine() {
+        mStart = lineStart(1);
+        mFirstLine = (mFirstLine + 1) % mLineStarts.length;
+        mLineCount--;
+    }
+
+    // Free a character by dropping the oldest lines
+    private void makeRoom() {
+        while (mLineCount > 1 && mEnd - mStart == mChars.length) {
+            dropFirstLine();
+        }
+        if (mEnd - mStart == mChars.length) {
+            // a single line fills the buffer, drop its oldest character
+            mStart++;
+            mLineStarts[mFirstLine] = mStart;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package jp.ksksue.sample;
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+/*
+ * Shows a TerminalBuffer. Only the lines on screen, and of them only the
+ * columns which fit in the width, are copied and drawn, so the cost of a
+ * frame doesn't depend on the scrollback size or the length of the lines.
+ * Follows new lines unless scrolled back by dragging. Lines are wrapped by
+ * the buffer at its column limit.
+ */
+public class TerminalView extends View {
+    private static final int DEFAULT_MAX_CHARS = 256 * 1024;
+    private static final int DEFAULT_MAX_LINES = 5000;
+
+    private TerminalBuffer mBuffer;
+    private final Paint mPaint;
+    private final float mLineHeight;
+    private final float mAscent;
+    private final float mCharWidth;
+    // columns on screen
+    private char[] mLineBuf;
+    // lines scrolled back from the bottom, 0 follows new lines
+    private int mScrollBack;
+    private float mTouchY;
+
+    public TerminalView(Context context) {
+        this(context, null);
+    }
+
+    public TerminalView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mPaint.setTypeface(Typeface.MONOSPACE);
+        mPaint.setTextSize(14 * getResources().getDisplayMetrics().scaledDensity);
+        mPaint.setColor(Color.WHITE);
+        Paint.FontMetrics metrics = mPaint.getFontMetrics();
+        mAscent = -metrics.ascent;
+        mLineHeight = metrics.descent - metrics.ascent + metrics.leading;
+        mCharWidth = mPaint.measureText("M");
+        setBuffer(new TerminalBuffer(DEFAULT_MAX_CHARS, DEFAULT_MAX_LINES));
+    }
+
+    // Replace the scrollback, e.g. to change its limits.
+    public void setBuffer(TerminalBuffer buffer) {
+        mBuffer = buffer;
+        mLineBuf = new char[visibleColumns()];
+        mScrollBack = 0;
+        invalidate();
+    }
+
+    public TerminalBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public void append(byte[] data, int length) {
+        int lines = mBuffer.getLineCount();
+        mBuffer.append(data, length);
+        if (mScrollBack > 0) {
+            // keep the shown lines in place
+            mScrollBack = Math.min(mScrollBack + mBuffer.getLineCount() - lines, maxScrollBack());
+        }
+        invalidate();
+    }
+
+    public void clear() {
+        mBuffer.clear();
+        mScrollBack = 0;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mLineBuf = new char[visibleColumns()];
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int rows = visibleRows();
+        int last = mBuffer.getLineCount() - 1 - mScrollBack;
+        int first = Math.max(0, last - rows + 1);
+        float y = getPaddingTop() + mAscent;
+        float x = getPaddingLeft();
+        for (int line = first; line <= last; line++) {
+            int len = mBuffer.getLine(line, mLineBuf);
+            canvas.drawText(mLineBuf, 0, len, x, y, mPaint);
+            y += mLineHeight;
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        switch (event.getAction()) {
+        case MotionEvent.ACTION_DOWN:
+            mTouchY = event.getY();
+            return true;
+        case MotionEvent.ACTION_MOVE:
+            int lines = (int) ((event.getY() - mTouchY) / mLineHeight);
+            if (lines != 0) {
+                mTouchY += lines * mLineHeight;
+                int scrollBack = Math.max(0, Math.min(mScrollBack + lines, maxScrollBack()));
+                if (scrollBack != mScrollBack) {
+                    mScrollBack = scrollBack;
+                    invalidate();
+                }
+            }
+            return true;
+        }
+        return super.onTouchEvent(event);
+    }
+
+    // columns which fit in the width, all of the buffer's before layout
+    private int visibleColumns() {
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        if (width <= 0) {
+            return mBuffer.getColumns();
+        }
+        return Math.max(1, Math.min((int) Math.ceil(width / mCharWidth), mBuffer.getColumns()));
+    }
+
+    private int visibleRows() {
+        return Math.max(1, (int) ((getHeight() - getPaddingTop() - getPaddingBottom()) / mLineHeight));
+    }
+
+    private int maxScrollBack() {
+        return Math.max(0, mBuffer.getLineCount() - visibleRows());
+    }
+}
@@ -5,8 +5,6 @@ package jp.ksksue.sample;
  * http://www.apache.org/licenses/LICENSE-2.0
  */
 
-import java.util.StringTokenizer;
-
 import jp.ksksue.serial.R;
 import android.app.Activity;
 import android.content.BroadcastReceiver;
@@ -35,19 +33,12 @@ public class FTSerialCSVActivity extends Activity {
 	private TextView mTvIllumi;
 	private TextView mTvButton;
 	private TextView mTvRTC;
-	
-	private boolean mStop=false;
-	private boolean mStopped=true;
 
-	String stTemp;
-	String stHumid;
-	String stIllumi;
-	String stButton1;
-	String stButton2;
-	String stButton3;
-	String stButton4;
-	String stButton5;
-	String stRTC;
+	// fields of the last line, kept for the UI thread
+	private double mTemp;
+	private double mHumid;
+	private double mIllumi;
+	private boolean mUpdatePosted;
 	
 	String TAG = "FTSerialCSV";
     
@@ -112,7 +103,8 @@ public class FTSerialCSVActivity extends Activity {
 
 		registerReceiver(mUsbReceiver, filter);
         
-        if(mSerial.begin(9600)) {	// now only 9600 supported
+        if(mSerial.begin()) {
+        	mSerial.getPort().open(9600);
         	mainloop();
         }
         
@@ -123,7 +115,7 @@ public class FTSerialCSVActivity extends Activity {
      		@Override
      		public void onClick(View v) {
      			String stCommand = "sp,"+"0"+"\n";
-     			mSerial.write(stCommand.getBytes(),stCommand.length());
+     			sendCommand(stCommand);
      		}
          });
          
@@ -134,7 +126,7 @@ public class FTSerialCSVActivity extends Activity {
       		@Override
       		public void onClick(View v) {
       			String stCommand = "sp,"+"1"+"\n";
-      			mSerial.write(stCommand.getBytes(),stCommand.length());
+      			sendCommand(stCommand);
       		}
           });
           // ---------------------------------------------------------------------------------------
@@ -144,7 +136,7 @@ public class FTSerialCSVActivity extends Activity {
        		@Override
        		public void onClick(View v) {
        			String stCommand = "sp,"+"2"+"\n";
-       			mSerial.write(stCommand.getBytes(),stCommand.length());
+       			sendCommand(stCommand);
        		}
            });
            // ---------------------------------------------------------------------------------------
@@ -154,7 +146,7 @@ public class FTSerialCSVActivity extends Activity {
         		@Override
         		public void onClick(View v) {
         			String stCommand = "sp,"+"3"+"\n";
-        			mSerial.write(stCommand.getBytes(),stCommand.length());
+        			sendCommand(stCommand);
         		}
             });
 
@@ -165,7 +157,7 @@ public class FTSerialCSVActivity extends Activity {
       		@Override
       		public void onClick(View v) {
      			String stCommand = "ld,"+"1"+"\n";
-     			mSerial.write(stCommand.getBytes(),stCommand.length());
+     			sendCommand(stCommand);
       		}
           });
 
@@ -176,7 +168,7 @@ public class FTSerialCSVActivity extends Activity {
        		@Override
        		public void onClick(View v) {
        			String stCommand = "ld,"+"1"+"\n";
-       			mSerial.write(stCommand.getBytes(),stCommand.length());
+       			sendCommand(stCommand);
        		}
            });
 
@@ -187,7 +179,7 @@ public class FTSerialCSVActivity extends Activity {
         		@Override
         		public void onClick(View v) {
          			String stCommand = "l1,"+"1"+"\n";
-         			mSerial.write(stCommand.getBytes(),stCommand.length());
+         			sendCommand(stCommand);
         		}
             });
 
@@ -198,7 +190,7 @@ public class FTSerialCSVActivity extends Activity {
          		@Override
          		public void onClick(View v) {
          			String stCommand = "l2,"+"1"+"\n";
-         			mSerial.write(stCommand.getBytes(),stCommand.length());
+         			sendCommand(stCommand);
          		}
              });
 
@@ -209,7 +201,7 @@ public class FTSerialCSVActivity extends Activity {
           		@Override
           		public void onClick(View v) {
           			String stCommand = "rt,"+"1"+"\n";
-          			mSerial.write(stCommand.getBytes(),stCommand.length());
+          			sendCommand(stCommand);
           		}
               });
 
@@ -218,93 +210,64 @@ public class FTSerialCSVActivity extends Activity {
     @Override
     public void onDestroy() {
 		mSerial.end();
-		mStop=true;
        unregisterReceiver(mUsbReceiver);
 		super.onDestroy();
     }
         
 	private void mainloop() {
-		new Thread(mLoop).start();
-	}
-	
-	private Runnable mLoop = new Runnable() {
-		@Override
-		public void run() {
-			int i;
-			int len;
-			byte[] rbuf = new byte[60];
-			String stReadBuf;
-			boolean breakwhile;
-			boolean androidOn=false;
-			
-			for(;;){//this is the main loop for transferring
-				
-				stReadBuf = "";
-				
-				breakwhile = true;
-				//////////////////////////////////////////////////////////
-				// Read
-				//////////////////////////////////////////////////////////
-				while(breakwhile) {
-					len = mSerial.read(rbuf);
-					for(i=0;i<len;++i) {
-						Log.i(TAG,"Read  Data["+i+"] : "+rbuf[i]);
-
-						if(rbuf[i]==0x0A) {	// "\n":LF(0x0A)
-							breakwhile = false;
-						} else {
-							stReadBuf = stReadBuf + "" +(char)rbuf[i];
-						}
-					}
-				}
-
-				// Androidを点滅
-				if(androidOn) {
-					mCurrentImage = mOffImage;
-					androidOn = false;
+		final FTCsvDecoder decoder = GenetCsvSchema.newDecoder();
+		final FTCsvRecord record = decoder.newRecord();
+		final FTDelimiterFramer framer = new FTDelimiterFramer('\n', 256, new FTFrameListener() {
+			@Override
+			public void onFrame(byte[] frame, int offset, int length) {
+				if (decoder.decode(frame, offset, length, record)) {
+					showRecord(record);
 				} else {
-					mCurrentImage = mOnImage;
-					androidOn = true;
+					Log.w(TAG, "bad line, " + decoder.getErrorCount() + " so far");
 				}
+			}
+		});
+		// called on the reader thread as soon as data is received
+		mSerial.getPort().setDataListener(new FTDataListener() {
+			@Override
+			public void onDataReceived(byte[] data, int length) {
+				framer.decode(data, 0, length);
+			}
+		});
+	}
+	
+	private void sendCommand(String command) {
+		byte[] wbuf = command.getBytes();
+		mSerial.getPort().writeAsync(wbuf, 0, wbuf.length, null);
+	}
+	
+	private boolean mAndroidOn = false;
 
-				StringTokenizer st = new StringTokenizer(stReadBuf,",");
-
-				stTemp		= st.nextToken();
-				stHumid	= st.nextToken();
-				stIllumi	= st.nextToken();
-				stButton1	= st.nextToken();
-				stButton2	= st.nextToken();
-				stButton3	= st.nextToken();
-				stButton4	= st.nextToken();
-				stButton5	= st.nextToken();
-				stRTC		= st.nextToken();
-
-				Log.i(TAG,"Temp : " + stTemp + ", stHumid : " + stHumid + ", stIllumi : " + stIllumi);
-				Log.i(TAG,"Button1 : " + stButton1 + ", Button2 : " + stButton2 + ", Button3 : " + stButton3 + ", Button4 : " + stButton4 +"Button5 : " + stButton5 );
-				Log.i(TAG,"RTC : " + stRTC);
-
-				// FIXME もっとビューティーホーに書きたい 
-				mHandler.post(new Runnable() {
-					public void run() {
-						ivAndroid.setImageDrawable(mCurrentImage);
-						mTvTemp.setText(stTemp);
-						mTvHumid.setText(stHumid);
-						mTvIllumi.setText(stIllumi);
-//						mTvButton.setText("b1 : "+stButton1+",b2 : "+stButton2+",b3 : "+stButton3+",b4 : "+stButton4+",b5 : "+stButton5);
-//						mTvRTC.setText(stRTC);
-					}
-				});
+	// called on the reader thread for each line
+	private void showRecord(FTCsvRecord record) {
+		synchronized (mUpdate) {
+			// Androidを点滅
+			mAndroidOn = !mAndroidOn;
+			mCurrentImage = mAndroidOn? mOnImage : mOffImage;
+			mTemp = record.getDouble(GenetCsvSchema.TEMP);
+			mHumid = record.getDouble(GenetCsvSchema.HUMID);
+			mIllumi = record.getDouble(GenetCsvSchema.ILLUMI);
+			// UI is updated once for lines arrived meanwhile
+			if (!mUpdatePosted) {
+				mUpdatePosted = true;
+				mHandler.post(mUpdate);
+			}
+		}
+	}
 
-				try {
-					Thread.sleep(50);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				
-				if(mStop) {
-					mStopped = true;
-					return;
-				}
+	private final Runnable mUpdate = new Runnable() {
+		public void run() {
+			synchronized (this) {
+				mUpdatePosted = false;
+				ivAndroid.setImageDrawable(mCurrentImage);
+				mTvTemp.setText(String.valueOf(mTemp));
+				mTvHumid.setText(String.valueOf(mHumid));
+				mTvIllumi.setText(String.valueOf(mIllumi));
 			}
 		}
 	};
@@ -314,14 +277,14 @@ public class FTSerialCSVActivity extends Activity {
         public void onReceive(Context context, Intent intent) {
     		String action = intent.getAction();
     		if (UsbManager.ACTION_USB_DEVICE_ATTACHED.equals(action)) {
-    			mSerial.usbAttached(intent);
-				mSerial.begin(9600);	// only 9600 supported 
-    			mainloop();
+    			if (mSerial.usbAttached(intent)) {
+    				mSerial.getPort().open(9600);
+    				mainloop();
+    			}
 				
     		} else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(action)) {
     			mSerial.usbDetached(intent);
     			mSerial.end();
-    			mStop=true;
     		}
         }
     };
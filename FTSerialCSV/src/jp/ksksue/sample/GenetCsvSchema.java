@@ -0,0 +1,34 @@
+package jp.ksksue.sample;
+/*
+ * Copyright (C) 2011 @ksksue
+ * Licensed under the Apache License, Version 2.0
+ * http://www.apache.org/licenses/LICENSE-2.0
+ */
+
+import jp.ksksue.driver.serial.FTCsvDecoder;
+
+/*
+ * Sensor line of the board
+ * temperature,humidity,illuminance,button1,...,button5,RTC
+ */
+public class GenetCsvSchema {
+    public static final int TEMP = 0;
+    public static final int HUMID = 1;
+    public static final int ILLUMI = 2;
+    public static final int BUTTON1 = 3;
+    public static final int BUTTON_COUNT = 5;
+    public static final int RTC = 8;
+
+    public static FTCsvDecoder newDecoder() {
+        return new FTCsvDecoder(',',
+                FTCsvDecoder.DECIMAL,	// temperature
+                FTCsvDecoder.DECIMAL,	// humidity
+                FTCsvDecoder.DECIMAL,	// illuminance
+                FTCsvDecoder.INTEGER,	// button1
+                FTCsvDecoder.INTEGER,
+                FTCsvDecoder.INTEGER,
+                FTCsvDecoder.INTEGER,
+                FTCsvDecoder.INTEGER,	// button5
+                FTCsvDecoder.TEXT);		// RTC
+    }
+}
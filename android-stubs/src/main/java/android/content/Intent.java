@@ -0,0 +1,11 @@
+package android.content;
+
+public class Intent {
+    public String getAction() {
+        return null;
+    }
+
+    public <T> T getParcelableExtra(String name) {
+        return null;
+    }
+}
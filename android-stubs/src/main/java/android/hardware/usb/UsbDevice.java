@@ -0,0 +1,27 @@
+package android.hardware.usb;
+
+public class UsbDevice {
+    public String getDeviceName() {
+        return "";
+    }
+
+    public int getVendorId() {
+        return 0;
+    }
+
+    public int getProductId() {
+        return 0;
+    }
+
+    public int getDeviceClass() {
+        return 0;
+    }
+
+    public int getInterfaceCount() {
+        return 0;
+    }
+
+    public UsbInterface getInterface(int index) {
+        return null;
+    }
+}
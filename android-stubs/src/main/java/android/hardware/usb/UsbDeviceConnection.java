@@ -0,0 +1,49 @@
+package android.hardware.usb;
+
+// No device behind it: every transfer fails
+public class UsbDeviceConnection {
+    public void close() {
+    }
+
+    public int getFileDescriptor() {
+        return -1;
+    }
+
+    public byte[] getRawDescriptors() {
+        return null;
+    }
+
+    public String getSerial() {
+        return null;
+    }
+
+    public boolean claimInterface(UsbInterface intf, boolean force) {
+        return false;
+    }
+
+    public boolean releaseInterface(UsbInterface intf) {
+        return false;
+    }
+
+    public int controlTransfer(int requestType, int request, int value, int index,
+            byte[] buffer, int length, int timeout) {
+        return -1;
+    }
+
+    public int controlTransfer(int requestType, int request, int value, int index,
+            byte[] buffer, int offset, int length, int timeout) {
+        return -1;
+    }
+
+    public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int length, int timeout) {
+        return -1;
+    }
+
+    public int bulkTransfer(UsbEndpoint endpoint, byte[] buffer, int offset, int length, int timeout) {
+        return -1;
+    }
+
+    public UsbRequest requestWait() {
+        return null;
+    }
+}
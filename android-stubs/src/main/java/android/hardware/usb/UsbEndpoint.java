@@ -0,0 +1,19 @@
+package android.hardware.usb;
+
+public class UsbEndpoint {
+    public int getAddress() {
+        return 0;
+    }
+
+    public int getDirection() {
+        return 0;
+    }
+
+    public int getType() {
+        return UsbConstants.USB_ENDPOINT_XFER_BULK;
+    }
+
+    public int getMaxPacketSize() {
+        return 64;
+    }
+}
@@ -0,0 +1,15 @@
+package android.hardware.usb;
+
+public class UsbInterface {
+    public int getId() {
+        return 0;
+    }
+
+    public int getEndpointCount() {
+        return 0;
+    }
+
+    public UsbEndpoint getEndpoint(int index) {
+        return null;
+    }
+}
@@ -0,0 +1,19 @@
+package android.hardware.usb;
+
+import java.util.HashMap;
+
+public class UsbManager {
+    public static final String ACTION_USB_DEVICE_ATTACHED =
+            "android.hardware.usb.action.USB_DEVICE_ATTACHED";
+    public static final String ACTION_USB_DEVICE_DETACHED =
+            "android.hardware.usb.action.USB_DEVICE_DETACHED";
+    public static final String EXTRA_DEVICE = "device";
+
+    public HashMap<String, UsbDevice> getDeviceList() {
+        return new HashMap<String, UsbDevice>();
+    }
+
+    public UsbDeviceConnection openDevice(UsbDevice device) {
+        return null;
+    }
+}
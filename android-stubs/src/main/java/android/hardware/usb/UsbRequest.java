@@ -0,0 +1,34 @@
+package android.hardware.usb;
+
+import java.nio.ByteBuffer;
+
+public class UsbRequest {
+    private Object mClientData;
+
+    public boolean initialize(UsbDeviceConnection connection, UsbEndpoint endpoint) {
+        return false;
+    }
+
+    public void close() {
+    }
+
+    public UsbEndpoint getEndpoint() {
+        return null;
+    }
+
+    public Object getClientData() {
+        return mClientData;
+    }
+
+    public void setClientData(Object data) {
+        mClientData = data;
+    }
+
+    public boolean queue(ByteBuffer buffer, int length) {
+        return false;
+    }
+
+    public boolean cancel() {
+        return false;
+    }
+}
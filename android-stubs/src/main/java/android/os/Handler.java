@@ -0,0 +1,27 @@
+package android.os;
+
+// There is no message loop on the JVM: posted runnables run at once
+// on the posting thread, delayed ones are dropped.
+public class Handler {
+    public Handler() {
+    }
+
+    public Handler(Looper looper) {
+    }
+
+    public boolean post(Runnable r) {
+        r.run();
+        return true;
+    }
+
+    public boolean postDelayed(Runnable r, long delayMillis) {
+        return false;
+    }
+
+    public void removeCallbacks(Runnable r) {
+    }
+
+    public Looper getLooper() {
+        return null;
+    }
+}
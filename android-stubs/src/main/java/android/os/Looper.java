@@ -0,0 +1,11 @@
+package android.os;
+
+public class Looper {
+    public static Looper getMainLooper() {
+        return null;
+    }
+
+    public static Looper myLooper() {
+        return null;
+    }
+}